@@ -2,15 +2,74 @@ package simpledb;
 
 import java.util.*;
 
+import java.io.IOException;
+
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The groups held in memory are limited to as many result tuples as fit on a
+ * budget of heap pages, by default the size of the BufferPool.  Once the
+ * budget is reached, tuples of groups already in memory are still merged,
+ * and tuples of new groups are partitioned by a hash of their group value
+ * into {@link SpillFile}s.  Each partition is then aggregated the same way
+ * after the groups in memory have been returned, with a different hash for
+ * each level of partitioning.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** System property with the default memory budget, in pages */
+    public static final String MEMORY_PAGES_PROPERTY = "simpledb.Aggregate.memoryPages";
+
+    /** Most partitions the input of one aggregation is split into */
+    static final int MAX_FANOUT = 64;
+
+    /** Deepest a partition is split again before it is aggregated in memory */
+    static final int MAX_DEPTH = 4;
+
+    private DbIterator child;
+    private int afield;
+    private int gfield;
+    private Aggregator.Op aop;
+
+    /**
+     * Memory budget in pages, or -1 for the default
+     */
+    private int memoryPages;
+
+    /**
+     * Schema of the output tuples
+     */
+    private TupleDesc td;
+
+    /**
+     * Results of the groups aggregated in memory
+     */
+    private transient DbIterator results;
+
+    /** Most groups to hold in memory, from the memory budget */
+    private transient int maxGroups;
+    private transient int fanout;
+    private transient boolean spilled;
+
+    /**
+     * A spilled partition still to be aggregated
+     */
+    private static class Partition {
+        final SpillFile file;
+        final int depth;
+
+        Partition(SpillFile file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
+    private transient LinkedList<Partition> pending;
+
     /**
      * Constructor.
      * 
@@ -31,6 +90,43 @@ public class Aggregate extends Operator {
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
 	// some code goes here
+	this(child, afield, gfield, aop, -1);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @param memoryPages
+     *            the groups held in memory may take as many result tuples
+     *            as fit on this many pages; -1 for the value of the
+     *            simpledb.Aggregate.memoryPages property, or else the number
+     *            of pages of the BufferPool
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int memoryPages) {
+	if(child.getTupleDesc().getFieldType(afield) == Type.STRING_TYPE && aop != Aggregator.Op.COUNT)
+	    throw new IllegalArgumentException("cannot compute " + aop + " over a string field");
+	this.child = child;
+	this.afield = afield;
+	this.gfield = gfield;
+	this.aop = aop;
+	this.memoryPages = memoryPages;
+    }
+
+    /**
+     * @return true if the last open() or rewind() had more groups than fit
+     *         in memory and partitioned the input to disk
+     */
+    public boolean isSpilled() {
+	return spilled;
     }
 
     /**
@@ -40,7 +136,7 @@ public class Aggregate extends Operator {
      * */
     public int groupField() {
 	// some code goes here
-	return -1;
+	return gfield;
     }
 
     /**
@@ -50,7 +146,8 @@ public class Aggregate extends Operator {
      * */
     public String groupFieldName() {
 	// some code goes here
-	return null;
+	if(gfield == Aggregator.NO_GROUPING) return null;
+	return getTupleDesc().getFieldName(0);
     }
 
     /**
@@ -58,7 +155,7 @@ public class Aggregate extends Operator {
      * */
     public int aggregateField() {
 	// some code goes here
-	return -1;
+	return afield;
     }
 
     /**
@@ -67,7 +164,8 @@ public class Aggregate extends Operator {
      * */
     public String aggregateFieldName() {
 	// some code goes here
-	return null;
+	TupleDesc td = getTupleDesc();
+	return td.getFieldName(td.numFields() - 1);
     }
 
     /**
@@ -75,7 +173,7 @@ public class Aggregate extends Operator {
      * */
     public Aggregator.Op aggregateOp() {
 	// some code goes here
-	return null;
+	return aop;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -85,6 +183,117 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	// some code goes here
+	int pages = memoryPages > 0 ? memoryPages
+		: Integer.getInteger(MEMORY_PAGES_PROPERTY, Database.getBufferPool().getNumPages());
+	pages = Math.max(1, pages);
+	maxGroups = (int)Math.min(Integer.MAX_VALUE,
+		(long)pages * HeapPage.getNumTuples(getTupleDesc()));
+	fanout = Math.max(2, Math.min(MAX_FANOUT, pages - 1));
+	pending = new LinkedList<Partition>();
+
+	child.open();
+	aggregateChild();
+	super.open();
+    }
+
+    private Aggregator newAggregator() {
+	TupleDesc childTd = child.getTupleDesc();
+	Type gtype = gfield == Aggregator.NO_GROUPING ? null : childTd.getFieldType(gfield);
+	return childTd.getFieldType(afield) == Type.INT_TYPE
+		? new IntegerAggregator(gfield, gtype, afield, aop)
+		: new StringAggregator(gfield, gtype, afield, aop);
+    }
+
+    /**
+     * Aggregate the child, spilling the groups that do not fit.
+     */
+    private void aggregateChild() throws DbException, TransactionAbortedException {
+	Aggregator agg = newAggregator();
+	SpillFile[] parts = new SpillFile[fanout];
+	while(child.hasNext()) {
+	    merge(agg, child.next(), parts, 0);
+	}
+	finish(agg, parts, 0);
+    }
+
+    /**
+     * Aggregate a spilled partition, spilling the groups that do not fit
+     * again.
+     */
+    private void aggregatePartition(Partition p) throws DbException, TransactionAbortedException {
+	Aggregator agg = newAggregator();
+	SpillFile[] parts = new SpillFile[fanout];
+	try {
+	    DbFileIterator it = p.file.iterator();
+	    it.open();
+	    while(it.hasNext()) {
+		merge(agg, it.next(), parts, p.depth + 1);
+	    }
+	    it.close();
+	} catch (IOException e) {
+	    throw new DbException("cannot read aggregate partition: " + e.getMessage());
+	} finally {
+	    p.file.delete();
+	}
+	finish(agg, parts, p.depth + 1);
+    }
+
+    /**
+     * Merge t into agg, or spill it to its partition of parts if its group
+     * is new and agg holds as many groups as it may.
+     */
+    private void merge(Aggregator agg, Tuple t, SpillFile[] parts, int depth) throws DbException {
+	if(agg.numGroups() < maxGroups || depth > MAX_DEPTH) {
+	    agg.mergeTupleIntoGroup(t);
+	    return;
+	}
+	if(agg.mergeTupleIfGroupExists(t)) return;
+
+	int part = partition(t.getField(gfield), depth);
+	try {
+	    if(parts[part] == null) parts[part] = new SpillFile(child.getTupleDesc());
+	    parts[part].add(t);
+	} catch (IOException e) {
+	    throw new DbException("cannot spill aggregate partition: " + e.getMessage());
+	}
+	spilled = true;
+    }
+
+    /**
+     * Make agg's groups the next results, and queue the partitions spilled
+     * beside it ahead of the other pending ones.
+     */
+    private void finish(Aggregator agg, SpillFile[] parts, int depth) throws DbException, TransactionAbortedException {
+	for(int i = parts.length - 1; i >= 0; i--) {
+	    if(parts[i] != null) pending.addFirst(new Partition(parts[i], depth));
+	}
+	results = agg.iterator();
+	results.open();
+    }
+
+    /**
+     * @return the partition of a group value; each depth of partitioning
+     *         uses a different hash so that a partition splits further
+     */
+    private int partition(Field key, int depth) {
+	int h = key.hashCode() + depth * 0x9E3779B9;
+	h ^= h >>> 16;
+	h *= 0x85EBCA6B;
+	h ^= h >>> 13;
+	h *= 0xC2B2AE35;
+	h ^= h >>> 16;
+	return (h & 0x7fffffff) % fanout;
+    }
+
+    /**
+     * Delete the partitions not aggregated yet.
+     */
+    private void dropSpills() {
+	if(pending != null) {
+	    for(Partition p : pending) p.file.delete();
+	    pending.clear();
+	}
+	spilled = false;
     }
 
     /**
@@ -96,11 +305,24 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
-	return null;
+	while(true) {
+	    if(results != null && results.hasNext()) return results.next();
+	    if(pending == null || pending.isEmpty()) return null;
+	    aggregatePartition(pending.removeFirst());
+	}
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
+	if(!spilled) {
+	    // every group is still in memory
+	    results.rewind();
+	    return;
+	}
+	dropSpills();
+	results.close();
+	child.rewind();
+	aggregateChild();
     }
 
     /**
@@ -116,22 +338,39 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	// some code goes here
-	return null;
+	if(td == null) {
+	    TupleDesc childTd = child.getTupleDesc();
+	    String aname = nameOfAggregatorOp(aop) + " (" + childTd.getFieldName(afield) + ")";
+	    if(gfield == Aggregator.NO_GROUPING) {
+		td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aname });
+	    } else {
+		td = new TupleDesc(new Type[] { childTd.getFieldType(gfield), Type.INT_TYPE },
+			new String[] { childTd.getFieldName(gfield), aname });
+	    }
+	}
+	return td;
     }
 
     public void close() {
 	// some code goes here
+	super.close();
+	if(results != null) results.close();
+	results = null;
+	dropSpills();
+	child.close();
     }
 
     @Override
     public DbIterator[] getChildren() {
 	// some code goes here
-	return null;
+	return new DbIterator[] { child };
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
 	// some code goes here
+	this.child = children[0];
+	this.td = null;
     }
     
 }
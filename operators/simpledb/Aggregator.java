@@ -57,6 +57,21 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge a new tuple into the aggregate for its group only if the group
+     * value has already been encountered.  Used to bound the number of
+     * groups held in memory.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     * @return false if the tuple's group is new and the tuple was not merged
+     */
+    public boolean mergeTupleIfGroupExists(Tuple tup);
+
+    /**
+     * @return the number of distinct group values merged so far
+     */
+    public int numGroups();
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -8,6 +8,15 @@ public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private TransactionId tid;
+    private DbIterator child;
+
+    /** Schema of the result: a single int field */
+    private final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE });
+
+    /** Whether the count has been returned since the last open or rewind */
+    private boolean done;
+
     /**
      * Constructor specifying the transaction that this delete belongs to as
      * well as the child to read from.
@@ -19,23 +28,33 @@ public class Delete extends Operator {
      */
     public Delete(TransactionId t, DbIterator child) {
         // some code goes here
+    	this.tid = t;
+    	this.child = child;
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        // return null;
+    	return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+    	super.open();
+    	child.open();
+    	done = false;
     }
 
     public void close() {
         // some code goes here
+    	super.close();
+    	child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+    	child.rewind();
+    	done = false;
     }
 
     /**
@@ -49,18 +68,31 @@ public class Delete extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        // return null;
+    	if(done) return null;
+    	done = true;
+    	BufferPool pool = Database.getBufferPool();
+    	int count = 0;
+    	while(child.hasNext()) {
+    		pool.deleteTuple(tid, child.next());
+    		count++;
+    	}
+    	Tuple result = new Tuple(td);
+    	result.setField(0, new IntField(count));
+    	return result;
     }
 
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
-        return null;
+        // return null;
+    	return new DbIterator[]{child};
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
         // some code goes here
+    	child = children[0];
     }
 
 }
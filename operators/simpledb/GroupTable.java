@@ -0,0 +1,170 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the groups of a GROUP BY 0, 1, 2, ... in the order they are first
+ * seen, so that an aggregator can keep the state of each group in primitive
+ * arrays indexed by this slot number.
+ * <p>
+ * Group values are kept as primitives as well, an int group as an int and a
+ * string group as its bytes, in an open addressing hash table of slots.
+ * Finding the slot of a tuple's group allocates nothing unless the group is
+ * new.  Without grouping every tuple is in slot 0.
+ */
+class GroupTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** slotOf result for a tuple whose group-by field is null */
+    static final int NULL_GROUP = -1;
+
+    /** slotOf result for a tuple whose group is new when it may not be added */
+    static final int NO_SLOT = -2;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+
+    /** Number of groups */
+    private int size;
+
+    /** Group value of each slot; only the array of the group type is used */
+    private int[] intKeys;
+    private byte[][] strKeys;
+    /** Hash of the group value of each slot */
+    private int[] hashes;
+
+    /** Hash table of slot + 1, or 0 for an empty entry; a power of two long */
+    private int[] table;
+
+    /**
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field, or null if there is no
+     *            grouping
+     */
+    GroupTable(int gbfield, Type gbfieldtype) {
+    	this.gbfield = gbfield;
+    	this.gbfieldtype = gbfield == Aggregator.NO_GROUPING ? null : gbfieldtype;
+    	if(this.gbfieldtype != null) {
+    		hashes = new int[INITIAL_CAPACITY];
+    		table = new int[INITIAL_CAPACITY * 2];
+    		if(this.gbfieldtype == Type.INT_TYPE) intKeys = new int[INITIAL_CAPACITY];
+    		else strKeys = new byte[INITIAL_CAPACITY][];
+    	}
+    }
+
+    /**
+     * @return the number of groups seen so far
+     */
+    int size() {
+    	return size;
+    }
+
+    /**
+     * @return the slot of the group of t, adding the group if it is new, or
+     *         NULL_GROUP if t's group-by field is null
+     */
+    int slotOf(Tuple t) {
+    	return slotOf(t, true);
+    }
+
+    /**
+     * @param add
+     *            whether to add the group of t if it is new
+     * @return the slot of the group of t, NULL_GROUP if t's group-by field
+     *         is null, or NO_SLOT if the group is new and add is false
+     */
+    int slotOf(Tuple t, boolean add) {
+    	if(gbfieldtype == null) {
+    		if(size == 0 && !add) return NO_SLOT;
+    		size = 1;
+    		return 0;
+    	}
+    	if(!t.isSet(gbfield)) return NULL_GROUP;
+
+    	boolean isInt = gbfieldtype == Type.INT_TYPE;
+    	int h = isInt ? mix(t.getInt(gbfield)) : mix(t.stringHash(gbfield));
+    	int mask = table.length - 1;
+    	for(int i = h & mask; ; i = (i + 1) & mask) {
+    		int slot = table[i] - 1;
+    		if(slot < 0) {
+    			if(!add) return NO_SLOT;
+    			slot = add(t, h);
+    			table[i] = slot + 1;
+    			if(size * 2 > table.length) rehash();
+    			return slot;
+    		}
+    		if(hashes[slot] == h && (isInt ? intKeys[slot] == t.getInt(gbfield)
+    				: t.stringEquals(gbfield, strKeys[slot])))
+    			return slot;
+    	}
+    }
+
+    private int add(Tuple t, int h) {
+    	if(size == hashes.length) {
+    		int n = size * 2;
+    		hashes = Arrays.copyOf(hashes, n);
+    		if(intKeys != null) {
+    			intKeys = Arrays.copyOf(intKeys, n);
+    		} else {
+    			strKeys = Arrays.copyOf(strKeys, n);
+    		}
+    	}
+    	hashes[size] = h;
+    	if(intKeys != null) intKeys[size] = t.getInt(gbfield);
+    	else strKeys[size] = t.stringBytes(gbfield);
+    	return size++;
+    }
+
+    private void rehash() {
+    	table = new int[table.length * 2];
+    	int mask = table.length - 1;
+    	for(int slot = 0; slot < size; slot++) {
+    		int i = hashes[slot] & mask;
+    		while(table[i] != 0) i = (i + 1) & mask;
+    		table[i] = slot + 1;
+    	}
+    }
+
+    private static int mix(int h) {
+    	h ^= h >>> 16;
+    	h *= 0x85EBCA6B;
+    	h ^= h >>> 13;
+    	return h;
+    }
+
+    /**
+     * @return the group value of a slot, or null without grouping
+     */
+    Field groupValue(int slot) {
+    	if(gbfieldtype == null) return null;
+    	if(intKeys != null) return new IntField(intKeys[slot]);
+    	return new StringField(new String(strKeys[slot], Type.STRING_CHARSET), Type.STRING_LEN);
+    }
+
+    /**
+     * @return the schema of the aggregators' result tuples: the group value,
+     *         if grouping, followed by the int aggregate value
+     */
+    TupleDesc resultTupleDesc() {
+    	if(gbfieldtype == null) return new TupleDesc(new Type[] { Type.INT_TYPE });
+    	return new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE });
+    }
+
+    /**
+     * @return a result tuple holding the group value of slot and value
+     */
+    Tuple resultTuple(TupleDesc td, int slot, int value) {
+    	Tuple t = new Tuple(td);
+    	if(gbfieldtype == null) {
+    		t.setField(0, new IntField(value));
+    	} else {
+    		t.setField(0, groupValue(slot));
+    		t.setField(1, new IntField(value));
+    	}
+    	return t;
+    }
+}
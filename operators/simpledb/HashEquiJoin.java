@@ -0,0 +1,574 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The HashEquiJoin operator implements an equality join by building a hash
+ * table over one child and probing it with the tuples of the other, so each
+ * child is read only once.
+ * <p>
+ * Output tuples are always the concatenation of a tuple of child1 and a
+ * tuple of child2, in that order, whichever child the table is built on.
+ * <p>
+ * The hash table may hold as many tuples as fit on a budget of heap pages,
+ * by default the size of the BufferPool.  When the build child is larger,
+ * the join becomes a hybrid hash join: both children are partitioned by a
+ * hash of the join field, the first partition stays in memory and is joined
+ * while the probe child is read, and the other partitions are written to
+ * {@link SpillFile}s and joined pairwise afterwards.  A partition that is
+ * still too large is partitioned again with a different hash, and one that
+ * cannot be split (because all its tuples share a join value) is joined a
+ * budget-sized chunk of build tuples at a time.
+ */
+public class HashEquiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** System property with the default memory budget, in pages */
+    public static final String MEMORY_PAGES_PROPERTY = "simpledb.HashEquiJoin.memoryPages";
+
+    /** Most partitions a spilling join splits its input into at once */
+    static final int MAX_FANOUT = 64;
+
+    /** Deepest a partition is repartitioned before it is joined in chunks */
+    static final int MAX_DEPTH = 4;
+
+    private JoinPredicate predicate;
+    private DbIterator child1;
+    private DbIterator child2;
+
+    /**
+     * Whether the hash table is built on child1 (and probed with child2)
+     */
+    private boolean buildLeft;
+
+    /**
+     * Memory budget in pages, or -1 for the default
+     */
+    private int memoryPages;
+
+    /**
+     * Schema of the output tuples, merged once from the children's
+     */
+    private TupleDesc td;
+
+    /**
+     * Tuples of the build side, by join field value
+     */
+    private transient HashMap<Field, ArrayList<Tuple>> table;
+    private transient int tableSize;
+    /** Most tuples the table may hold, from the memory budget */
+    private transient int maxTuples;
+    private transient int fanout;
+
+    /**
+     * Current probe tuple and the build tuples matching it that have not
+     * been returned yet
+     */
+    private transient Tuple probe;
+    private transient ArrayList<Tuple> matches;
+    private transient int matchIdx;
+
+    /** Whether the build child did not fit in memory */
+    private transient boolean spilled;
+    /** Whether the probe child is being read and partitioned */
+    private transient boolean partitioning;
+    /** Whether partition 0 of the first partitioning is kept in table */
+    private transient boolean residentZero;
+    private transient SpillFile[] buildParts;
+    private transient SpillFile[] probeParts;
+
+    /**
+     * A pair of partitions still to be joined
+     */
+    private static class Task {
+        final SpillFile build;
+        final SpillFile probe;
+        final int depth;
+
+        Task(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+
+        void delete() {
+            build.delete();
+            probe.delete();
+        }
+    }
+
+    private transient LinkedList<Task> tasks;
+    /** Partitions being joined, with the rest of the build partition when it is joined in chunks */
+    private transient Task current;
+    private transient DbFileIterator buildIter;
+    private transient DbFileIterator probeIter;
+
+    /**
+     * Constructor. Builds the hash table on child1.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+    	this(p, child1, child2, true);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param buildLeft
+     *            true to build the hash table on child1, false to build it
+     *            on child2; the smaller child should be built on
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft) {
+    	this(p, child1, child2, buildLeft, -1);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param buildLeft
+     *            true to build the hash table on child1, false to build it
+     *            on child2; the smaller child should be built on
+     * @param memoryPages
+     *            the hash table may hold as many build tuples as fit on
+     *            this many pages; -1 for the value of the
+     *            simpledb.HashEquiJoin.memoryPages property, or else the
+     *            number of pages of the BufferPool
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean buildLeft, int memoryPages) {
+    	if(p.getOperator() != Predicate.Op.EQUALS)
+    		throw new IllegalArgumentException("HashEquiJoin only supports EQUALS, not " + p.getOperator());
+    	this.predicate = p;
+    	this.child1 = child1;
+    	this.child2 = child2;
+    	this.buildLeft = buildLeft;
+    	this.memoryPages = memoryPages;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+    	return predicate;
+    }
+
+    /**
+     * @return true if the hash table is built on child1
+     */
+    public boolean isBuildLeft() {
+    	return buildLeft;
+    }
+
+    /**
+     * @return true if the last open() or rewind() found the build child too
+     *         large for memory and partitioned the inputs to disk
+     */
+    public boolean isSpilled() {
+    	return spilled;
+    }
+
+    public String getJoinField1Name() {
+    	return child1.getTupleDesc().getFieldName(predicate.getField1());
+    }
+
+    public String getJoinField2Name() {
+    	return child2.getTupleDesc().getFieldName(predicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+    	if(td == null) {
+    		td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    	}
+    	return td;
+    }
+
+    private DbIterator buildChild() {
+    	return buildLeft ? child1 : child2;
+    }
+
+    private DbIterator probeChild() {
+    	return buildLeft ? child2 : child1;
+    }
+
+    private Field buildKey(Tuple t) {
+    	return t.getField(buildLeft ? predicate.getField1() : predicate.getField2());
+    }
+
+    private Field probeKey(Tuple t) {
+    	return t.getField(buildLeft ? predicate.getField2() : predicate.getField1());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+    	int pages = memoryPages > 0 ? memoryPages
+    			: Integer.getInteger(MEMORY_PAGES_PROPERTY, Database.getBufferPool().getNumPages());
+    	pages = Math.max(1, pages);
+    	maxTuples = (int)Math.min(Integer.MAX_VALUE,
+    			(long)pages * HeapPage.getNumTuples(buildChild().getTupleDesc()));
+    	fanout = Math.max(2, Math.min(MAX_FANOUT, pages - 1));
+    	table = new HashMap<Field, ArrayList<Tuple>>();
+    	tasks = new LinkedList<Task>();
+
+    	child1.open();
+    	child2.open();
+    	build();
+    	super.open();
+    }
+
+    /**
+     * Read the build child into the hash table, partitioning it to disk if
+     * it does not fit.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+    	DbIterator build = buildChild();
+    	while(build.hasNext()) {
+    		Tuple t = build.next();
+    		Field key = buildKey(t);
+    		if(key == null) continue;	// null never equals anything
+    		if(!spilled) {
+    			if(tableSize < maxTuples) {
+    				put(key, t);
+    				continue;
+    			}
+    			startSpilling();
+    		}
+    		int part = partition(key, 0);
+    		if(part == 0 && residentZero) {
+    			put(key, t);
+    			if(tableSize > maxTuples) spillResident();
+    		} else {
+    			spill(buildParts, part, t, build.getTupleDesc());
+    		}
+    	}
+    	partitioning = spilled;
+    	resetProbe();
+    }
+
+    private void put(Field key, Tuple t) {
+    	ArrayList<Tuple> bucket = table.get(key);
+    	if(bucket == null) {
+    		bucket = new ArrayList<Tuple>(1);
+    		table.put(key, bucket);
+    	}
+    	bucket.add(t);
+    	tableSize++;
+    }
+
+    /**
+     * Switch to a hybrid hash join: keep the build tuples of partition 0 in
+     * the table and move the others to their partitions on disk.
+     */
+    private void startSpilling() throws DbException {
+    	spilled = true;
+    	residentZero = true;
+    	buildParts = new SpillFile[fanout];
+    	probeParts = new SpillFile[fanout];
+    	TupleDesc buildTd = buildChild().getTupleDesc();
+    	Iterator<Map.Entry<Field, ArrayList<Tuple>>> it = table.entrySet().iterator();
+    	while(it.hasNext()) {
+    		Map.Entry<Field, ArrayList<Tuple>> e = it.next();
+    		int part = partition(e.getKey(), 0);
+    		if(part == 0) continue;
+    		for(Tuple t : e.getValue()) spill(buildParts, part, t, buildTd);
+    		tableSize -= e.getValue().size();
+    		it.remove();
+    	}
+    }
+
+    /**
+     * Partition 0 alone outgrew the table: write it to disk as well.
+     */
+    private void spillResident() throws DbException {
+    	TupleDesc buildTd = buildChild().getTupleDesc();
+    	for(ArrayList<Tuple> bucket : table.values())
+    		for(Tuple t : bucket) spill(buildParts, 0, t, buildTd);
+    	table.clear();
+    	tableSize = 0;
+    	residentZero = false;
+    }
+
+    private static void spill(SpillFile[] parts, int part, Tuple t, TupleDesc td) throws DbException {
+    	try {
+    		if(parts[part] == null) parts[part] = new SpillFile(td);
+    		parts[part].add(t);
+    	} catch (IOException e) {
+    		throw new DbException("cannot spill join partition: " + e.getMessage());
+    	}
+    }
+
+    /**
+     * @return the partition of a join value; each depth of repartitioning
+     *         uses a different hash so that a partition splits further
+     */
+    private int partition(Field key, int depth) {
+    	int h = key.hashCode() + depth * 0x9E3779B9;
+    	h ^= h >>> 16;
+    	h *= 0x85EBCA6B;
+    	h ^= h >>> 13;
+    	h *= 0xC2B2AE35;
+    	h ^= h >>> 16;
+    	return (h & 0x7fffffff) % fanout;
+    }
+
+    private void resetProbe() {
+    	probe = null;
+    	matches = null;
+    	matchIdx = 0;
+    }
+
+    /**
+     * Delete every spill file and forget the partitions.
+     */
+    private void dropSpills() {
+    	if(buildIter != null) buildIter.close();
+    	if(probeIter != null) probeIter.close();
+    	buildIter = null;
+    	probeIter = null;
+    	if(current != null) current.delete();
+    	current = null;
+    	if(tasks != null) {
+    		for(Task t : tasks) t.delete();
+    		tasks.clear();
+    	}
+    	for(SpillFile[] parts : new SpillFile[][] { buildParts, probeParts }) {
+    		if(parts == null) continue;
+    		for(SpillFile f : parts) if(f != null) f.delete();
+    	}
+    	buildParts = null;
+    	probeParts = null;
+    	spilled = false;
+    	partitioning = false;
+    	residentZero = false;
+    }
+
+    public void close() {
+    	super.close();
+    	dropSpills();
+    	table = null;
+    	tableSize = 0;
+    	resetProbe();
+    	child1.close();
+    	child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+    	resetProbe();
+    	if(!spilled) {
+    		// the hash table still holds the whole build child; only the
+    		// probe child has to be read again
+    		probeChild().rewind();
+    		return;
+    	}
+    	dropSpills();
+    	table.clear();
+    	tableSize = 0;
+    	child1.rewind();
+    	child2.rewind();
+    	build();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Every build tuple whose join field equals the current
+     * probe tuple's is returned before moving on to the next probe tuple.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+    	while(true) {
+    		if(matches != null && matchIdx < matches.size()) {
+    			Tuple other = matches.get(matchIdx++);
+    			return buildLeft ? new Tuple(getTupleDesc(), other, probe)
+    					: new Tuple(getTupleDesc(), probe, other);
+    		}
+    		matches = null;
+
+    		Tuple t = nextProbe();
+    		if(t == null) {
+    			if(!advance()) return null;
+    			continue;
+    		}
+    		Field key = probeKey(t);
+    		if(key == null) continue;
+    		if(partitioning) {
+    			int part = partition(key, 0);
+    			if(part != 0 || !residentZero) {
+    				spill(probeParts, part, t, probeChild().getTupleDesc());
+    				continue;
+    			}
+    		}
+    		probe = t;
+    		matches = table.get(key);
+    		matchIdx = 0;
+    	}
+    }
+
+    /**
+     * @return the next tuple of the current probe input, or null when it
+     *         is exhausted
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+    	if(probeIter != null)
+    		return probeIter.hasNext() ? probeIter.next() : null;
+    	if(current == null && (partitioning || !spilled))
+    		return probeChild().hasNext() ? probeChild().next() : null;
+    	return null;
+    }
+
+    /**
+     * Move on to the next piece of work once the current probe input is
+     * exhausted.
+     *
+     * @return false if the join is complete
+     */
+    private boolean advance() throws DbException, TransactionAbortedException {
+    	if(!spilled)
+    		return false;
+
+    	if(partitioning) {
+    		// the probe child has been read; queue the pairs of partitions
+    		partitioning = false;
+    		for(int i = 0; i < fanout; i++) {
+    			if(buildParts[i] != null && probeParts[i] != null)
+    				tasks.add(new Task(buildParts[i], probeParts[i], 0));
+    			else if(buildParts[i] != null)
+    				buildParts[i].delete();
+    			else if(probeParts[i] != null)
+    				probeParts[i].delete();
+    		}
+    		buildParts = null;
+    		probeParts = null;
+    	} else if(buildIter != null && buildIter.hasNext()) {
+    		// the build partition is joined in chunks; load the next one and
+    		// read the probe partition again
+    		loadChunk();
+    		probeIter.rewind();
+    		return true;
+    	}
+
+    	finishTask();
+    	while(!tasks.isEmpty()) {
+    		if(startTask(tasks.removeFirst()))
+    			return true;
+    	}
+    	return false;
+    }
+
+    private void finishTask() {
+    	if(buildIter != null) buildIter.close();
+    	if(probeIter != null) probeIter.close();
+    	buildIter = null;
+    	probeIter = null;
+    	if(current != null) current.delete();
+    	current = null;
+    	table.clear();
+    	tableSize = 0;
+    }
+
+    /**
+     * Start joining a pair of partitions, or split them further if the
+     * build partition does not fit in memory.
+     *
+     * @return true if the pair is now being joined
+     */
+    private boolean startTask(Task task) throws DbException, TransactionAbortedException {
+    	if(task.build.numTuples() > maxTuples && task.depth < MAX_DEPTH) {
+    		repartition(task);
+    		return false;
+    	}
+    	current = task;
+    	try {
+    		buildIter = task.build.iterator();
+    		probeIter = task.probe.iterator();
+    	} catch (IOException e) {
+    		throw new DbException("cannot read join partition: " + e.getMessage());
+    	}
+    	buildIter.open();
+    	probeIter.open();
+    	loadChunk();
+    	return true;
+    }
+
+    /**
+     * Fill the table with the next budget-sized chunk of the build
+     * partition.
+     */
+    private void loadChunk() throws DbException, TransactionAbortedException {
+    	table.clear();
+    	tableSize = 0;
+    	while(tableSize < maxTuples && buildIter.hasNext()) {
+    		Tuple t = buildIter.next();
+    		put(buildKey(t), t);
+    	}
+    }
+
+    /**
+     * Split a pair of partitions with the hash of the next depth, and queue
+     * the resulting pairs ahead of the other tasks.
+     */
+    private void repartition(Task task) throws DbException, TransactionAbortedException {
+    	int depth = task.depth + 1;
+    	SpillFile[] subBuild = new SpillFile[fanout];
+    	SpillFile[] subProbe = new SpillFile[fanout];
+    	try {
+    		DbFileIterator it = task.build.iterator();
+    		it.open();
+    		while(it.hasNext()) {
+    			Tuple t = it.next();
+    			spill(subBuild, partition(buildKey(t), depth), t, task.build.getTupleDesc());
+    		}
+    		it.close();
+    		it = task.probe.iterator();
+    		it.open();
+    		while(it.hasNext()) {
+    			Tuple t = it.next();
+    			int part = partition(probeKey(t), depth);
+    			if(subBuild[part] != null)	// nothing to match otherwise
+    				spill(subProbe, part, t, task.probe.getTupleDesc());
+    		}
+    		it.close();
+    	} catch (IOException e) {
+    		throw new DbException("cannot read join partition: " + e.getMessage());
+    	} finally {
+    		task.delete();
+    	}
+    	for(int i = fanout - 1; i >= 0; i--) {
+    		if(subBuild[i] != null && subProbe[i] != null)
+    			tasks.addFirst(new Task(subBuild[i], subProbe[i], depth));
+    		else if(subBuild[i] != null)
+    			subBuild[i].delete();
+    	}
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+    	return new DbIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    	this.child1 = children[0];
+    	this.child2 = children[1];
+    	this.td = null;
+    }
+
+}
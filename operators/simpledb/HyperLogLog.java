@@ -0,0 +1,70 @@
+package simpledb;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values added
+ * to it in a fixed 4KB of memory, with a standard error of about 1.6%.
+ * <p>
+ * Values are added as 64 bit hashes.  The leading bits of a hash choose one
+ * of the registers, which keeps the longest run of leading zeros seen in the
+ * rest of the hashes that chose it.  Sketches of parts of a column can be
+ * merged into a sketch of the whole.
+ */
+public class HyperLogLog {
+
+    /** Number of hash bits that choose a register */
+    private static final int P = 12;
+    private static final int M = 1 << P;
+
+    private final byte[] registers = new byte[M];
+
+    /**
+     * Add a value given by a well mixed 64 bit hash of it, such as
+     * {@link #hash}.
+     */
+    public void add(long hash) {
+    	int idx = (int)(hash >>> (64 - P));
+    	// the sentinel bit caps the rank when the remaining bits are all zero
+    	int rank = Long.numberOfLeadingZeros((hash << P) | (1L << (P - 1))) + 1;
+    	if(rank > registers[idx]) registers[idx] = (byte)rank;
+    }
+
+    /**
+     * @return a well mixed 64 bit hash of v (the MurmurHash3 finalizer)
+     */
+    public static long hash(long v) {
+    	v ^= v >>> 33;
+    	v *= 0xff51afd7ed558ccdL;
+    	v ^= v >>> 33;
+    	v *= 0xc4ceb9fe1a85ec53L;
+    	v ^= v >>> 33;
+    	return v;
+    }
+
+    /**
+     * Add the values of another sketch to this one.
+     */
+    public void merge(HyperLogLog other) {
+    	for(int i = 0; i < M; i++) {
+    		if(other.registers[i] > registers[i]) registers[i] = other.registers[i];
+    	}
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public long estimate() {
+    	double sum = 0;
+    	int zeros = 0;
+    	for(int i = 0; i < M; i++) {
+    		sum += Math.scalb(1.0, -registers[i]);
+    		if(registers[i] == 0) zeros++;
+    	}
+    	double alpha = 0.7213 / (1 + 1.079 / M);
+    	double e = alpha * M * M / sum;
+    	if(e <= 2.5 * M && zeros > 0) {
+    		// few values: count them from the registers still empty instead
+    		e = M * Math.log((double)M / zeros);
+    	}
+    	return Math.round(e);
+    }
+}
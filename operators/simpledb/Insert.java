@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.io.IOException;
+
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
  * constructor
@@ -8,6 +10,16 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private TransactionId tid;
+    private DbIterator child;
+    private int tableid;
+
+    /** Schema of the result: a single int field */
+    private final TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE });
+
+    /** Whether the count has been returned since the last open or rewind */
+    private boolean done;
+
     /**
      * Constructor.
      * 
@@ -24,23 +36,36 @@ public class Insert extends Operator {
     public Insert(TransactionId t,DbIterator child, int tableid)
             throws DbException {
         // some code goes here
+    	if(!child.getTupleDesc().equals(Database.getCatalog().getTupleDesc(tableid)))
+    		throw new DbException("tupledesc of child differs from table " + tableid);
+    	this.tid = t;
+    	this.child = child;
+    	this.tableid = tableid;
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        // return null;
+    	return td;
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+    	super.open();
+    	child.open();
+    	done = false;
     }
 
     public void close() {
         // some code goes here
+    	super.close();
+    	child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+    	child.rewind();
+    	done = false;
     }
 
     /**
@@ -58,17 +83,34 @@ public class Insert extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        // return null;
+    	if(done) return null;
+    	done = true;
+    	BufferPool pool = Database.getBufferPool();
+    	int count = 0;
+    	while(child.hasNext()) {
+    		try {
+    			pool.insertTuple(tid, tableid, child.next());
+    		} catch (IOException e) {
+    			throw new DbException("could not insert tuple: " + e.getMessage());
+    		}
+    		count++;
+    	}
+    	Tuple result = new Tuple(td);
+    	result.setField(0, new IntField(count));
+    	return result;
     }
 
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
-        return null;
+        // return null;
+    	return new DbIterator[]{child};
     }
 
     @Override
     public void setChildren(DbIterator[] children) {
         // some code goes here
+    	child = children[0];
     }
 }
@@ -0,0 +1,251 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * An equi-depth histogram of the values of an int column, built from a
+ * sample of them.  Each bucket holds about the same number of the sampled
+ * values, so buckets are narrow where values are dense, and a value that
+ * makes up a large share of the column fills buckets of its own rather than
+ * being averaged with its neighbours.
+ * <p>
+ * Within a bucket values are assumed to be spread evenly over its range
+ * and over its distinct values.
+ * <p>
+ * Values can be added and removed after the histogram is built, with a
+ * weight saying how many sampled values each of them stands for; this
+ * only changes bucket counts, so the buckets drift from equal depth until
+ * the histogram is rebuilt.
+ */
+public class IntHistogram {
+
+    /** Smallest and largest sampled value of each bucket */
+    private int[] lo;
+    private int[] hi;
+    /** Number of sampled values in each bucket, and in all of them */
+    private double[] count;
+    private double total;
+    /** Number of distinct sampled values in each bucket */
+    private int[] distinct;
+    /** Chance that two sampled values drawn at random are equal */
+    private final double selfEqual;
+
+    /**
+     * Create a histogram of a sample of values.
+     *
+     * @param buckets
+     *            the largest number of buckets to use
+     * @param values
+     *            the sampled values; the first n are used, and the array is
+     *            not modified
+     * @param n
+     *            the number of sampled values
+     */
+    public IntHistogram(int buckets, int[] values, int n) {
+    	int[] s = Arrays.copyOf(values, n);
+    	Arrays.sort(s);
+    	int b = Math.min(buckets, n);
+    	lo = new int[b];
+    	hi = new int[b];
+    	count = new double[b];
+    	distinct = new int[b];
+    	for(int i = 0; i < b; i++) {
+    		int start = (int)((long)i * n / b);
+    		int end = (int)((long)(i + 1) * n / b);
+    		lo[i] = s[start];
+    		hi[i] = s[end - 1];
+    		count[i] = end - start;
+    		int d = 1;
+    		for(int k = start + 1; k < end; k++) {
+    			if(s[k] != s[k - 1]) d++;
+    		}
+    		distinct[i] = d;
+    	}
+
+    	// a frequent value can span several buckets, so this is counted from
+    	// the runs of equal values rather than per bucket
+    	double eq = 0;
+    	for(int start = 0, k = 1; k <= n; k++) {
+    		if(k == n || s[k] != s[start]) {
+    			double p = (double)(k - start) / n;
+    			eq += p * p;
+    			start = k;
+    		}
+    	}
+    	selfEqual = eq;
+    	total = n;
+    }
+
+    /**
+     * Add a value to the bucket whose range holds it, widening the first or
+     * last bucket if it lies outside all of them.
+     *
+     * @param weight
+     *            the number of sampled values v stands for
+     */
+    public void addValue(int v, double weight) {
+    	if(lo.length == 0) {
+    		lo = new int[] { v };
+    		hi = new int[] { v };
+    		count = new double[] { 0 };
+    		distinct = new int[] { 1 };
+    	}
+    	int i = bucketOf(v);
+    	if(v < lo[i]) {
+    		lo[i] = v;
+    		distinct[i]++;
+    	} else if(v > hi[i]) {
+    		hi[i] = v;
+    		distinct[i]++;
+    	}
+    	count[i] += weight;
+    	total += weight;
+    }
+
+    /**
+     * Remove a value from the bucket whose range holds it.
+     *
+     * @param weight
+     *            the number of sampled values v stands for
+     */
+    public void removeValue(int v, double weight) {
+    	if(lo.length == 0) return;
+    	int i = bucketOf(v);
+    	double w = Math.min(weight, count[i]);
+    	count[i] -= w;
+    	total -= w;
+    }
+
+    /**
+     * @return the last bucket whose range starts at or below v, or the
+     *         first bucket if there is none
+     */
+    private int bucketOf(int v) {
+    	int i = 0;
+    	while(i + 1 < lo.length && lo[i + 1] <= v) i++;
+    	return i;
+    }
+
+    /**
+     * @return the fraction of values equal to v
+     */
+    private double equal(int v) {
+    	double sel = 0;
+    	for(int i = 0; i < lo.length && lo[i] <= v; i++) {
+    		if(v <= hi[i]) sel += count[i] / distinct[i];
+    	}
+    	return sel / total;
+    }
+
+    /**
+     * @return the fraction of values less than v
+     */
+    private double less(int v) {
+    	double sel = 0;
+    	for(int i = 0; i < lo.length && lo[i] < v; i++) {
+    		if(hi[i] < v) {
+    			sel += count[i];
+    		} else {
+    			// v falls inside the bucket: take the part of its range below v
+    			sel += count[i] * ((double)v - lo[i]) / ((double)hi[i] - lo[i] + 1);
+    		}
+    	}
+    	return sel / total;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this
+     * column.
+     *
+     * @param op
+     *            Operator
+     * @param v
+     *            Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+    	if(total <= 0) return 0;
+    	double sel;
+    	switch(op) {
+    	case EQUALS:
+    	case LIKE:
+    		sel = equal(v);
+    		break;
+    	case NOT_EQUALS:
+    		sel = 1 - equal(v);
+    		break;
+    	case LESS_THAN:
+    		sel = less(v);
+    		break;
+    	case LESS_THAN_OR_EQ:
+    		sel = less(v) + equal(v);
+    		break;
+    	case GREATER_THAN:
+    		sel = 1 - less(v) - equal(v);
+    		break;
+    	case GREATER_THAN_OR_EQ:
+    		sel = 1 - less(v);
+    		break;
+    	default:
+    		throw new IllegalArgumentException("unknown operator " + op);
+    	}
+    	return Math.max(0, Math.min(1, sel));
+    }
+
+    /**
+     * @return the average selectivity of op against a value drawn from this
+     *         column itself, as when the column is joined with a similar one
+     */
+    public double avgSelectivity(Predicate.Op op) {
+    	if(total <= 0) return 0;
+    	// per bucket, as if its values were spread evenly over its distinct
+    	// ones; the sample's own figure also catches a frequent value that
+    	// spans buckets, but knows nothing of values added since
+    	double eq = 0;
+    	for(int i = 0; i < lo.length; i++) {
+    		double f = count[i] / total;
+    		eq += f * f / distinct[i];
+    	}
+    	eq = Math.max(eq, selfEqual);
+    	switch(op) {
+    	case EQUALS:
+    	case LIKE:
+    		return eq;
+    	case NOT_EQUALS:
+    		return 1 - eq;
+    	case LESS_THAN:
+    	case GREATER_THAN:
+    		return (1 - eq) / 2;
+    	default:
+    		return (1 + eq) / 2;
+    	}
+    }
+
+    /**
+     * @return the number of buckets
+     */
+    public int numBuckets() {
+    	return lo.length;
+    }
+
+    /**
+     * @return the number of sampled values in the histogram, counting added
+     *         values by their weight
+     */
+    public double numValues() {
+    	return total;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+    	StringBuilder sb = new StringBuilder();
+    	for(int i = 0; i < lo.length; i++) {
+    		if(i > 0) sb.append(' ');
+    		sb.append('[').append(lo[i]).append(", ").append(hi[i]).append("]:")
+    			.append(String.format("%.3f", count[i] / total)).append('/').append(distinct[i]);
+    	}
+    	return sb.toString();
+    }
+}
@@ -1,12 +1,35 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are hashed to slots by a {@link GroupTable}, and the running
+ * state of each group is kept in long arrays indexed by slot; only the
+ * arrays the operator needs are allocated.  Values are read from tuples
+ * without creating Fields, so merging a tuple into an existing group
+ * allocates nothing.  Tuples whose aggregate or group-by field is null are
+ * ignored.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final int afield;
+    private final Op what;
+    private final GroupTable groups;
+
+    /**
+     * Per-group sum (SUM, AVG), count (COUNT, AVG), min (MIN) and max (MAX);
+     * null when the operator does not need it
+     */
+    private long[] sum;
+    private long[] count;
+    private long[] min;
+    private long[] max;
+
     /**
      * Aggregate constructor
      * 
@@ -24,6 +47,14 @@ public class IntegerAggregator implements Aggregator {
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+    	this.afield = afield;
+    	this.what = what;
+    	this.groups = new GroupTable(gbfield, gbfieldtype);
+    	int n = gbfield == NO_GROUPING ? 1 : 16;
+    	if(what == Op.SUM || what == Op.AVG) sum = new long[n];
+    	if(what == Op.COUNT || what == Op.AVG) count = new long[n];
+    	if(what == Op.MIN) min = new long[n];
+    	if(what == Op.MAX) max = new long[n];
     }
 
     /**
@@ -35,6 +66,90 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+    	merge(tup, true);
+    }
+
+    public boolean mergeTupleIfGroupExists(Tuple tup) {
+    	return merge(tup, false);
+    }
+
+    public int numGroups() {
+    	return groups.size();
+    }
+
+    /**
+     * @return false if the group of tup is new and add is false
+     */
+    private boolean merge(Tuple tup, boolean add) {
+    	if(!tup.isSet(afield)) return true;
+    	int before = groups.size();
+    	int slot = groups.slotOf(tup, add);
+    	if(slot == GroupTable.NO_SLOT) return false;
+    	if(slot == GroupTable.NULL_GROUP) return true;
+    	long v = tup.getInt(afield);
+    	if(groups.size() > before) {
+    		newGroup(slot, v);
+    		return true;
+    	}
+    	switch(what) {
+    	case AVG:
+    		count[slot]++;
+    		sum[slot] += v;
+    		break;
+    	case SUM:
+    		sum[slot] += v;
+    		break;
+    	case COUNT:
+    		count[slot]++;
+    		break;
+    	case MIN:
+    		if(v < min[slot]) min[slot] = v;
+    		break;
+    	case MAX:
+    		if(v > max[slot]) max[slot] = v;
+    		break;
+    	}
+    	return true;
+    }
+
+    /**
+     * Start the state of a new group with its first value.
+     */
+    private void newGroup(int slot, long v) {
+    	if(sum != null) {
+    		if(slot == sum.length) sum = Arrays.copyOf(sum, slot * 2);
+    		sum[slot] = v;
+    	}
+    	if(count != null) {
+    		if(slot == count.length) count = Arrays.copyOf(count, slot * 2);
+    		count[slot] = 1;
+    	}
+    	if(min != null) {
+    		if(slot == min.length) min = Arrays.copyOf(min, slot * 2);
+    		min[slot] = v;
+    	}
+    	if(max != null) {
+    		if(slot == max.length) max = Arrays.copyOf(max, slot * 2);
+    		max[slot] = v;
+    	}
+    }
+
+    /**
+     * @return the aggregate value of the group in slot
+     */
+    private int result(int slot) {
+    	switch(what) {
+    	case SUM:
+    		return (int)sum[slot];
+    	case AVG:
+    		return (int)(sum[slot] / count[slot]);
+    	case COUNT:
+    		return (int)count[slot];
+    	case MIN:
+    		return (int)min[slot];
+    	default:
+    		return (int)max[slot];
+    	}
     }
 
     /**
@@ -47,8 +162,12 @@ public class IntegerAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         // some code goes here
-        throw new
-        UnsupportedOperationException("please implement me for proj2");
+    	TupleDesc td = groups.resultTupleDesc();
+    	ArrayList<Tuple> results = new ArrayList<Tuple>(groups.size());
+    	for(int slot = 0; slot < groups.size(); slot++) {
+    		results.add(groups.resultTuple(td, slot, result(slot)));
+    	}
+    	return new TupleIterator(td, results);
     }
 
 }
@@ -4,6 +4,11 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loops join: the outer child is read a block of
+ * tuples at a time, and the inner child is scanned once per block rather
+ * than once per outer tuple.  A block holds as many tuples as fit on a
+ * number of heap pages, by default the free frames of the BufferPool.
  */
 public class Join extends Operator {
 
@@ -14,9 +19,28 @@ public class Join extends Operator {
     private DbIterator child2;
     
     /**
-     * Used to store child1's current tuple
+     * Number of pages of outer tuples per block, or -1 for the default
      */
-    private Tuple t1;
+    private int blockPages;
+
+    /**
+     * Current block of child1's tuples
+     */
+    private transient ArrayList<Tuple> block;
+    private transient int blockTuples;
+    private transient boolean started;
+
+    /**
+     * Used to store child2's current tuple, and the next tuple of the block
+     * to compare it with
+     */
+    private Tuple t2;
+    private transient int blockIdx;
+    
+    /**
+     * Schema of the output tuples, merged once from the children's
+     */
+    private TupleDesc td;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -31,11 +55,36 @@ public class Join extends Operator {
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
         // some code goes here
+    	this(p, child1, child2, -1);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockPages
+     *            number of pages of outer tuples to join per scan of the
+     *            inner relation; -1 for {@link #defaultBlockPages}
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
     	this.predicate = p;
     	this.child1 = child1;
     	this.child2 = child2;
-    	
-    	this.t1 = null;
+    	this.blockPages = blockPages;
+    }
+
+    /**
+     * @return the number of pages of outer tuples a Join holds per block
+     *         unless told otherwise: the frames currently free in the
+     *         BufferPool, and at least one
+     */
+    public static int defaultBlockPages() {
+    	return Math.max(1, Database.getBufferPool().getNumFreePages());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -75,16 +124,24 @@ public class Join extends Operator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         // return null;
-    	TupleDesc td1 = child1.getTupleDesc();
-    	TupleDesc td2 = child2.getTupleDesc();
-    	return TupleDesc.merge(td1, td2);
+    	if(td == null) {
+    		TupleDesc td1 = child1.getTupleDesc();
+    		TupleDesc td2 = child2.getTupleDesc();
+    		td = TupleDesc.merge(td1, td2);
+    	}
+    	return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
+    	int pages = blockPages > 0 ? blockPages : defaultBlockPages();
+    	blockTuples = (int)Math.min(Integer.MAX_VALUE,
+    			(long)pages * HeapPage.getNumTuples(child1.getTupleDesc()));
+    	block = new ArrayList<Tuple>(Math.min(blockTuples, 1024));
+    	started = false;
+    	t2 = null;
     	super.open();
-    	this.t1 = null;
     	child1.open();
     	child2.open();
     }
@@ -92,14 +149,21 @@ public class Join extends Operator {
     public void close() {
         // some code goes here
     	super.close();
-    	this.t1 = null;
+    	this.block = null;
+    	this.t2 = null;
     	child1.close();
     	child2.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-    	open();
+    	// the children are open already; rewinding them is enough
+    	block.clear();
+    	started = false;
+    	t2 = null;
+    	blockIdx = 0;
+    	child1.rewind();
+    	child2.rewind();
     }
 
     /**
@@ -108,6 +172,9 @@ public class Join extends Operator {
      * satisfies the join predicate. There are many possible implementations;
      * the simplest is a nested loops join.
      * <p>
+     * Within a block, the result follows the order of child2's tuples, and
+     * for each of them the order of the block's tuples.
+     * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
      * relation. Therefore, if an equality predicate is used there will be two
@@ -123,23 +190,44 @@ public class Join extends Operator {
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
         // return null;
-    	while(child1.hasNext() || t1 != null) {
-    		if(t1 == null) {
-    			t1 = child1.next();
-    		}
-    		while(child2.hasNext()) {
-    			Tuple t2 = child2.next();
-    			if(predicate.filter(t1, t2)) {
-    				return new Tuple(t1, t2);
+    	if(!started) {
+    		started = true;
+    		if(!loadBlock()) return null;
+    	}
+    	while(true) {
+    		if(t2 != null) {
+    			while(blockIdx < block.size()) {
+    				Tuple t1 = block.get(blockIdx++);
+    				if(predicate.filter(t1, t2)) {
+    					return new Tuple(getTupleDesc(), t1, t2);
+    				}
     			}
+    			t2 = null;
     		}
-    		
-    		if(!child2.hasNext()) {
-    			child2.rewind();
-    			t1 = null;
+    		if(child2.hasNext()) {
+    			t2 = child2.next();
+    			blockIdx = 0;
+    			continue;
     		}
+    		
+    		// this block has seen all of child2; start the next one
+    		if(!child1.hasNext()) return null;
+    		child2.rewind();
+    		loadBlock();
+    	}
+    }
+
+    /**
+     * Replace the block with the next tuples of child1.
+     * 
+     * @return false if child1 had no more tuples
+     */
+    private boolean loadBlock() throws DbException, TransactionAbortedException {
+    	block.clear();
+    	while(block.size() < blockTuples && child1.hasNext()) {
+    		block.add(child1.next());
     	}
-    	return null;
+    	return !block.isEmpty();
     }
 
     @Override
@@ -155,6 +243,7 @@ public class Join extends Operator {
         // some code goes here
     	this.child1 = children[0];
     	this.child2 = children[1];
+    	this.td = null;
     }
 
 }
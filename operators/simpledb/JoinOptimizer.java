@@ -44,6 +44,66 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, -1, -1);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, given
+     * estimates of the cardinalities of the two subplans. Equality joins are
+     * computed by a {@link HashEquiJoin} that builds its hash table on the
+     * subplan estimated to be smaller; other joins use nested loops.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param card1
+     *            Estimated cardinality of plan1, or -1 if unknown
+     * @param card2
+     *            Estimated cardinality of plan2, or -1 if unknown
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int card1, int card2)
+            throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, card1, card2, false, false,
+                false);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, given
+     * estimates of the cardinalities of the two subplans and their orders.
+     * A {@link SortMergeJoin} is used when both subplans are already in
+     * ascending order of their join fields, or when the plan wants the
+     * output in the order a SortMergeJoin produces (see {@link #mergeOrder})
+     * so that sorting the inputs replaces a sort of the output; unsorted
+     * subplans are then sorted with an {@link OrderBy}.  Otherwise the join
+     * is chosen as by {@link #instantiateJoin(LogicalJoinNode, DbIterator,
+     * DbIterator, int, int)}.
+     * 
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param card1
+     *            Estimated cardinality of plan1, or -1 if unknown
+     * @param card2
+     *            Estimated cardinality of plan2, or -1 if unknown
+     * @param sorted1
+     *            Whether plan1 is in ascending order of lj's field 1
+     * @param sorted2
+     *            Whether plan2 is in ascending order of lj's field 2
+     * @param orderWanted
+     *            Whether the output order of a SortMergeJoin saves a sort
+     *            later in the plan
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, int card1, int card2,
+            boolean sorted1, boolean sorted2, boolean orderWanted)
+            throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -68,12 +128,53 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        boolean mergeable = !(lj instanceof LogicalSubplanJoinNode)
+                && SortMergeJoin.supports(lj.p);
+        if (mergeable && ((sorted1 && sorted2) || orderWanted)) {
+            if (!sorted1)
+                plan1 = new OrderBy(t1id, true, plan1);
+            if (!sorted2)
+                plan2 = new OrderBy(t2id, true, plan2);
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS && !(lj instanceof LogicalSubplanJoinNode)) {
+            // build on the smaller side; without estimates, on plan1
+            boolean buildLeft = card1 < 0 || card2 < 0 || card1 <= card2;
+            j = new HashEquiJoin(p, plan1, plan2, buildLeft);
+        } else {
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    /**
+     * @return the quantified names of the fields that the output of a
+     *         {@link SortMergeJoin} computing lj is in ascending order of;
+     *         empty if lj cannot be computed by a SortMergeJoin
+     */
+    public static Set<String> mergeOrder(LogicalJoinNode lj) {
+        Set<String> order = new HashSet<String>();
+        if (lj instanceof LogicalSubplanJoinNode || !SortMergeJoin.supports(lj.p))
+            return order;
+        if (lj.p != Predicate.Op.LESS_THAN && lj.p != Predicate.Op.LESS_THAN_OR_EQ)
+            order.add(lj.f1QuantifiedName);
+        if (lj.p != Predicate.Op.GREATER_THAN && lj.p != Predicate.Op.GREATER_THAN_OR_EQ)
+            order.add(lj.f2QuantifiedName);
+        return order;
+    }
+
+    /**
+     * @return the quantified names of the fields that the output of j, an
+     *         iterator returned by instantiateJoin for lj, is in ascending
+     *         order of
+     */
+    public static Set<String> outputOrder(LogicalJoinNode lj, DbIterator j) {
+        if (j instanceof SortMergeJoin)
+            return mergeOrder(lj);
+        return new HashSet<String>();
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -106,12 +207,42 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1 + cost1 + cost2;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // HashEquiJoin: one scan of each side and one hash operation per
+            // tuple, plus writing and reading back the share of both sides
+            // that spills when the smaller side does not fit in memory
+            double build = Math.min(card1, card2);
+            double memory = (double) Database.getBufferPool().getNumPages()
+                    * tuplesPerPage(card1 <= card2 ? j.t1Alias : j.t2Alias);
+            double cost = cost1 + cost2 + card1 + card2;
+            if (build > memory)
+                cost += 2 * (cost1 + cost2) * (1 - memory / build);
+            return cost;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // block nested loops: one scan of the inner side per block of
+            // outer tuples, and one predicate application per pair
+            double blockTuples = (double) Join.defaultBlockPages()
+                    * tuplesPerPage(j.t1Alias);
+            double blocks = Math.max(1, Math.ceil(card1 / blockTuples));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        }
+    }
+
+    /**
+     * @return the number of tuples of the table with the given alias that
+     *         fit on a page, or 1 if the table is unknown.  When the alias
+     *         is joined with other tables this underestimates the width of
+     *         the joined tuples, and so overestimates how many fit.
+     */
+    private int tuplesPerPage(String alias) {
+        Integer id = p == null || alias == null ? null : p.getTableId(alias);
+        if (id == null)
+            return 1;
+        try {
+            return Math.max(1, HeapPage.getNumTuples(Database.getCatalog()
+                    .getTupleDesc(id)));
+        } catch (NoSuchElementException e) {
+            return 1;
         }
     }
 
@@ -157,12 +288,63 @@ public class JoinOptimizer {
             Map<String, Integer> tableAliasToId) {
         int card = 1;
         // some code goes here
+        long ndv1 = numDistinct(table1Alias, field1PureName, card1, stats, tableAliasToId);
+        long ndv2 = numDistinct(table2Alias, field2PureName, card2, stats, tableAliasToId);
+        if (joinOp == Predicate.Op.EQUALS && ndv1 > 0 && ndv2 > 0) {
+            // values spread evenly: each of the fewer distinct values of one
+            // side matches card / ndv tuples of the other
+            card = (int) Math.min(Integer.MAX_VALUE,
+                    (double) card1 * card2 / Math.max(ndv1, ndv2));
+        } else if (joinOp == Predicate.Op.EQUALS) {
+            // each tuple of the side with the key matches at most once
+            if (t1pkey && t2pkey)
+                card = Math.min(card1, card2);
+            else if (t1pkey)
+                card = card2;
+            else if (t2pkey)
+                card = card1;
+            else
+                card = Math.max(card1, card2);
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (int) Math.min(Integer.MAX_VALUE, (long) card1 * card2);
+        } else {
+            // range joins keep a fixed fraction of the cross product
+            card = (int) Math.min(Integer.MAX_VALUE, 0.3 * card1 * card2);
+        }
         return card <= 0 ? 1 : card;
     }
 
+    /**
+     * @return the number of distinct values of a join field in a table's
+     *         statistics, capped at card, the number of its tuples that
+     *         reach the join; or 0 if there are no statistics for it
+     */
+    private static long numDistinct(String tableAlias, String fieldPureName,
+            int card, Map<String, TableStats> stats,
+            Map<String, Integer> tableAliasToId) {
+        if (stats == null || tableAliasToId == null)
+            return 0;
+        Integer tableid = tableAliasToId.get(tableAlias);
+        if (tableid == null)
+            return 0;
+        String name = Database.getCatalog().getTableName(tableid);
+        TableStats s = stats.get(name);
+        if (s == null)
+            return 0;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableid)
+                    .fieldNameToIndex(fieldPureName);
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+        return Math.min(s.numDistinct(field), card);
+    }
+
     /**
      * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
+     * specified vector.  Subsets are stepped through as bitmasks over the
+     * positions of v, so each one is built only once.
      * 
      * @param v
      *            The vector whose subsets are desired
@@ -170,23 +352,26 @@ public class JoinOptimizer {
      *            The size of the subsets of interest
      * @return a set of all subsets of the specified size
      */
-    @SuppressWarnings("unchecked")
     public <T> Set<Set<T>> enumerateSubsets(Vector<T> v, int size) {
         Set<Set<T>> els = new HashSet<Set<T>>();
-        els.add(new HashSet<T>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<Set<T>>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = (Set<T>) (((HashSet<T>) s).clone());
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+        int n = v.size();
+        if (size > n)
+            return els;
+        if (n > 62)
+            throw new IllegalArgumentException("too many elements: " + n);
+
+        // Gosper's hack: the next larger mask with as many bits set
+        long s = (1L << size) - 1;
+        while (s < (1L << n)) {
+            Set<T> subset = new HashSet<T>();
+            for (long b = s; b != 0; b &= b - 1)
+                subset.add(v.get(Long.numberOfTrailingZeros(b)));
+            els.add(subset);
+            if (s == 0)
+                break;
+            long c = s & -s;
+            long r = s + c;
+            s = (((r ^ s) >>> 2) / c) | r;
         }
 
         return els;
@@ -196,6 +381,18 @@ public class JoinOptimizer {
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * This is a Selinger-style dynamic program over sets of tables, using
+     * DPccp (Moerkotte and Neumann) to enumerate only pairs of connected,
+     * disjoint sets of tables that some join connects.  Cross products are
+     * never considered, and a chain or a star of tables is planned in time
+     * polynomial in their number.  Plans may be bushy: the returned order
+     * lists the joins of each input of a join before the join itself.
+     * <p>
+     * The joins are returned unchanged if a table has no statistics or the
+     * tables are not all connected by joins.  Joins between tables that
+     * the plan has already joined through other joins come after the plan's
+     * joins, and joins with subqueries come last.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -207,8 +404,8 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -220,148 +417,314 @@ public class JoinOptimizer {
         //Not necessary for projs 1--3
 
         // some code goes here
-        //Replace the following
-        return joins;
+        Vector<LogicalJoinNode> tableJoins = new Vector<LogicalJoinNode>();
+        Vector<LogicalJoinNode> subplanJoins = new Vector<LogicalJoinNode>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode)
+                subplanJoins.add(j);
+            else
+                tableJoins.add(j);
+        }
+        if (tableJoins.isEmpty())
+            return joins;
+
+        String[] aliases = numberTables(tableJoins);
+        if (aliases.length > 64)
+            return joins;
+        for (String alias : aliases) {
+            Integer id = p.getTableId(alias);
+            if (id == null)
+                throw new ParsingException("Unknown table " + alias);
+            if (stats.get(Database.getCatalog().getTableName(id)) == null
+                    || filterSelectivities.get(alias) == null)
+                return joins;
+        }
+
+        CcpEnumerator e = new CcpEnumerator(aliases, tableJoins, stats,
+                filterSelectivities);
+        e.enumerate();
+        long all = aliases.length == 64 ? -1L : (1L << aliases.length) - 1;
+        Vector<LogicalJoinNode> order = e.pc.getOrder(all);
+        if (order == null)
+            return joins; // not connected; LogicalPlan reports it
+
+        for (int k = 0; k < tableJoins.size(); k++) {
+            if (!e.used[k])
+                order.addElement(tableJoins.get(k));
+        }
+        order.addAll(subplanJoins);
+
+        if (explain)
+            printJoins(order, e.pc, e.index, stats, filterSelectivities);
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * @return the aliases of the tables that joins joins, numbered in
+     *         breadth first order of the join graph from the first join's
+     *         first table; DPccp relies on this numbering
+     */
+    private static String[] numberTables(Vector<LogicalJoinNode> joins) {
+        LinkedHashMap<String, List<String>> neighbours = new LinkedHashMap<String, List<String>>();
+        for (LogicalJoinNode j : joins) {
+            for (int side = 0; side < 2; side++) {
+                String a = side == 0 ? j.t1Alias : j.t2Alias;
+                String b = side == 0 ? j.t2Alias : j.t1Alias;
+                List<String> l = neighbours.get(a);
+                if (l == null) {
+                    l = new ArrayList<String>();
+                    neighbours.put(a, l);
+                }
+                l.add(b);
+            }
+        }
+
+        LinkedHashSet<String> numbered = new LinkedHashSet<String>();
+        for (String start : neighbours.keySet()) {
+            if (!numbered.add(start))
+                continue;
+            LinkedList<String> queue = new LinkedList<String>();
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                for (String next : neighbours.get(queue.removeFirst())) {
+                    if (numbered.add(next))
+                        queue.add(next);
+                }
+            }
+        }
+        return numbered.toArray(new String[numbered.size()]);
+    }
+
+    /**
+     * The DPccp enumeration of one query's join graph, filling a PlanCache
+     * with the best plan of each connected set of tables.  A set of tables
+     * is a bitmask, bit i standing for aliases[i].
+     */
+    private class CcpEnumerator {
+        final String[] aliases;
+        final HashMap<String, Integer> index = new HashMap<String, Integer>();
+        final HashMap<String, TableStats> stats;
+        final PlanCache pc = new PlanCache();
+
+        /** The joins, the same joins with inner and outer swapped, and
+         *  whether the best plan found so far for all tables uses each */
+        final LogicalJoinNode[] nodes;
+        final LogicalJoinNode[] swapped;
+        final boolean[] used;
+        /** Whether the field of each side of each join is a primary key */
+        final boolean[] pkey1;
+        final boolean[] pkey2;
+
+        /** Tables that each table is joined with */
+        final long[] adj;
+        /** Index of the first join between two tables, or -1 */
+        final int[][] edge;
+
+        CcpEnumerator(String[] aliases, Vector<LogicalJoinNode> joins,
+                HashMap<String, TableStats> stats,
+                HashMap<String, Double> filterSelectivities) {
+            this.aliases = aliases;
+            this.stats = stats;
+            int n = aliases.length;
+            for (int i = 0; i < n; i++)
+                index.put(aliases[i], i);
+
+            adj = new long[n];
+            edge = new int[n][n];
+            for (int[] row : edge)
+                Arrays.fill(row, -1);
+            int m = joins.size();
+            nodes = new LogicalJoinNode[m];
+            swapped = new LogicalJoinNode[m];
+            used = new boolean[m];
+            pkey1 = new boolean[m];
+            pkey2 = new boolean[m];
+            for (int k = 0; k < m; k++) {
+                LogicalJoinNode j = joins.get(k);
+                nodes[k] = j;
+                swapped[k] = j.swapInnerOuter();
+                pkey1[k] = isPkey(j.t1Alias, j.f1PureName);
+                pkey2[k] = isPkey(j.t2Alias, j.f2PureName);
+                int a = index.get(j.t1Alias);
+                int b = index.get(j.t2Alias);
+                if (a == b || edge[a][b] >= 0)
+                    continue; // applied after the tables are joined
+                edge[a][b] = k;
+                edge[b][a] = k;
+                adj[a] |= 1L << b;
+                adj[b] |= 1L << a;
+            }
+
+            for (int i = 0; i < n; i++) {
+                TableStats s = stats.get(Database.getCatalog().getTableName(
+                        p.getTableId(aliases[i])));
+                pc.addPlan(1L << i, s.estimateScanCost(),
+                        s.estimateTableCardinality(filterSelectivities.get(aliases[i])),
+                        0, null);
+            }
+        }
+
+        /** @return the set of tables 0..i */
+        private long upTo(int i) {
+            return i >= 63 ? -1L : (1L << (i + 1)) - 1;
+        }
+
+        /** @return the tables joined with some table of s, but not in s */
+        private long neighbours(long s) {
+            long nb = 0;
+            for (long b = s; b != 0; b &= b - 1)
+                nb |= adj[Long.numberOfTrailingZeros(b)];
+            return nb & ~s;
+        }
+
+        void enumerate() throws ParsingException {
+            for (int i = aliases.length - 1; i >= 0; i--) {
+                emitCsg(1L << i);
+                enumerateCsgRec(1L << i, upTo(i));
+            }
+            long all = aliases.length == 64 ? -1L : (1L << aliases.length) - 1;
+            markUsed(all);
+        }
+
+        /**
+         * Visit the connected supersets of s that avoid the tables in x.
+         * Here and in enumerateCmpRec the subsets of the neighbourhood are
+         * taken in increasing order of their masks, which together with the
+         * breadth first numbering makes every set's plan final before a
+         * larger set uses it.
+         */
+        private void enumerateCsgRec(long s, long x) throws ParsingException {
+            long nb = neighbours(s) & ~x;
+            if (nb == 0)
+                return;
+            for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+                emitCsg(s | sub);
+            for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+                enumerateCsgRec(s | sub, x | nb);
+        }
+
+        /** Pair the connected set s1 with each connected set it can join */
+        private void emitCsg(long s1) throws ParsingException {
+            long x = s1 | upTo(Long.numberOfTrailingZeros(s1));
+            long nb = neighbours(s1) & ~x;
+            for (long b = nb; b != 0;) {
+                int i = 63 - Long.numberOfLeadingZeros(b);
+                b &= ~(1L << i);
+                emitCsgCmp(s1, 1L << i);
+                enumerateCmpRec(s1, 1L << i, x | (upTo(i) & nb));
+            }
+        }
+
+        /** Pair s1 with the connected supersets of s2 that avoid x */
+        private void enumerateCmpRec(long s1, long s2, long x)
+                throws ParsingException {
+            long nb = neighbours(s2) & ~x;
+            if (nb == 0)
+                return;
+            for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+                emitCsgCmp(s1, s2 | sub);
+            for (long sub = nb & -nb; sub != 0; sub = (sub - nb) & nb)
+                enumerateCmpRec(s1, s2 | sub, x | nb);
+        }
+
+        /** Consider joining the best plans of s1 and s2 */
+        private void emitCsgCmp(long s1, long s2) throws ParsingException {
+            if (!pc.contains(s1) || !pc.contains(s2))
+                return;
+            int k = -1;
+            for (long b = s1; b != 0 && k < 0; b &= b - 1) {
+                int v = Long.numberOfTrailingZeros(b);
+                long nb = adj[v] & s2;
+                if (nb != 0)
+                    k = edge[v][Long.numberOfTrailingZeros(nb)];
+            }
+            boolean t1InS1 = (s1 & (1L << index.get(nodes[k].t1Alias))) != 0;
+            long left = t1InS1 ? s1 : s2;
+            long right = t1InS1 ? s2 : s1;
+            long s = s1 | s2;
+            double bestCostSoFar = pc.contains(s) ? pc.getCost(s)
+                    : Double.MAX_VALUE;
+            CostCard cc = computeCostAndCardOfSubplan(stats, nodes[k],
+                    swapped[k], left, right,
+                    Long.bitCount(left) == 1 && pkey1[k],
+                    Long.bitCount(right) == 1 && pkey2[k], bestCostSoFar, pc);
+            if (cc != null)
+                pc.addPlan(s, cc.cost, cc.card, cc.join == nodes[k] ? left
+                        : right, cc.join);
+        }
+
+        /** Mark the joins of the best plan for s as used */
+        private void markUsed(long s) {
+            Vector<LogicalJoinNode> order = pc.getOrder(s);
+            if (order == null)
+                return;
+            for (LogicalJoinNode j : order) {
+                for (int k = 0; k < nodes.length; k++) {
+                    if (j == nodes[k] || j == swapped[k])
+                        used[k] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * This is a helper method that computes the cost and cardinality of
+     * joining the best plans for two disjoint sets of tables with the join j,
+     * given that the best plans for both have already been computed and
+     * stored in PlanCache pc.
      * 
      * @param stats
      *            table stats for all of the tables, referenced by table names
      *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
+     * @param j
+     *            the join, its t1 in left and its t2 in right
+     * @param jSwapped
+     *            j with inner and outer swapped
+     * @param left
+     *            the tables of the left input
+     * @param right
+     *            the tables of the right input
+     * @param leftPkey
+     *            whether j's field 1 is a primary key of the left input
+     * @param rightPkey
+     *            whether j's field 2 is a primary key of the right input
      * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
+     *            the cost of the best plan for left and right together found
+     *            so far
      * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
+     *            the PlanCache for this join; should have plans for left and
+     *            right
      * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *         and join of the plan, or null if it is not cheaper than
+     *         bestCostSoFar
      */
-    @SuppressWarnings("unchecked")
     private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
-
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+            HashMap<String, TableStats> stats, LogicalJoinNode j,
+            LogicalJoinNode jSwapped, long left, long right,
+            boolean leftPkey, boolean rightPkey, double bestCostSoFar,
+            PlanCache pc) throws ParsingException {
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
-            }
-        }
+        double t1cost = pc.getCost(left);
+        int t1card = pc.getCard(left);
+        double t2cost = pc.getCost(right);
+        int t2card = pc.getCard(right);
 
-        // case where prevbest is left
+        // case where left is the outer
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(jSwapped, t2card, t1card, t2cost, t1cost);
         if (cost2 < cost1) {
             boolean tmp;
-            j = j2;
+            j = jSwapped;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
+            int card = t1card;
+            t1card = t2card;
+            t2card = card;
         }
         if (cost1 >= bestCostSoFar)
             return null;
@@ -371,24 +734,10 @@ public class JoinOptimizer {
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
                 rightPkey, stats);
         cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        cc.join = j;
         return cc;
     }
 
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
-        }
-        return false;
-    }
-
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -406,17 +755,15 @@ public class JoinOptimizer {
     }
 
     /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
+     * @return the set of tables joined with the table alias so far, as a
+     *         bitmask of their indexes; 0 for a subquery's null alias
      */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
+    private static long tableSet(String alias, HashMap<String, Long> joined,
+            HashMap<String, Integer> index) {
+        if (alias == null)
+            return 0;
+        Long s = joined.get(alias);
+        return s != null ? s : 1L << index.get(alias);
     }
 
     /**
@@ -428,6 +775,8 @@ public class JoinOptimizer {
      *            the join plan to visualize
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
+     * @param index
+     *            the bit of each table alias in the table sets of pc
      * @param stats
      *            table statistics for base tables
      * @param selectivities
@@ -436,7 +785,7 @@ public class JoinOptimizer {
      *            alias is given)
      */
     private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
-            HashMap<String, TableStats> stats,
+            HashMap<String, Integer> index, HashMap<String, TableStats> stats,
             HashMap<String, Double> selectivities) {
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
@@ -456,24 +805,34 @@ public class JoinOptimizer {
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
         HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
-        boolean neither;
+        // the set of tables joined with each table so far
+        HashMap<String, Long> joined = new HashMap<String, Long>();
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
             pathSoFar.add(j);
             System.out.println("PATH SO FAR = " + pathSoFar);
 
+            long tables = tableSet(j.t1Alias, joined, index)
+                    | tableSet(j.t2Alias, joined, index);
+            for (Map.Entry<String, Long> e : joined.entrySet()) {
+                if ((e.getValue() & ~tables) == 0)
+                    e.setValue(tables);
+            }
+            joined.put(j.t1Alias, tables);
+            if (j.t2Alias != null)
+                joined.put(j.t2Alias, tables);
+            DefaultMutableTreeNode left = m.get(j.t1Alias);
+            DefaultMutableTreeNode right = m.get(j.t2Alias);
+
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
             String table2Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t2Alias));
 
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
             root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
+                    + pc.getCost(tables) + ", card = "
+                    + pc.getCard(tables) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
@@ -486,7 +845,6 @@ public class JoinOptimizer {
             } else {
                 // make left child root n
                 root.add(n);
-                neither = false;
             }
             m.put(j.t1Alias, root);
 
@@ -508,16 +866,14 @@ public class JoinOptimizer {
             } else {
                 // make right child root n
                 root.add(n);
-                neither = false;
             }
             m.put(j.t2Alias, root);
 
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
+            // the tables of both inputs are accessed from root; in a bushy
+            // plan other subtrees are still separate
+            for (Map.Entry<String, DefaultMutableTreeNode> e : m.entrySet()) {
+                if (e.getValue() == left || e.getValue() == right)
+                    e.setValue(root);
             }
 
             treetop = root;
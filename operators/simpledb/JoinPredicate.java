@@ -30,7 +30,7 @@ public class JoinPredicate implements Serializable {
      */
     public JoinPredicate(int field1, Predicate.Op op, int field2) {
         // some code goes here
-    	this.field1 = field2;
+    	this.field1 = field1;
     	this.op = op;
     	this.field2 = field2;
     }
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that implements LIMIT n: it returns the first n
+ * tuples of its child, and reads no further.  ORDER BY ... LIMIT n is
+ * computed by {@link TopN} instead.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int n;
+    private int returned;
+
+    /**
+     * Constructor.
+     * 
+     * @param n
+     *            the number of tuples to return; must not be negative
+     * @param child
+     *            The child operator
+     */
+    public Limit(int n, DbIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("negative limit " + n);
+        this.n = n;
+        this.child = child;
+    }
+
+    /**
+     * @return the number of tuples this returns at most
+     */
+    public int getLimit() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child.open();
+        returned = 0;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= n || !child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
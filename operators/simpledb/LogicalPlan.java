@@ -1,5 +1,6 @@
 package simpledb;
 import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -35,6 +36,7 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -216,6 +218,16 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT: return at most n result tuples.
+        @param n the most tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative: " + n);
+        limit = n;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +283,16 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * @return true if field is the primary key of the table with the given
+     *         alias
+     */
+    private boolean isPkey(String tableAlias, String field) {
+        Integer tableId = getTableId(tableAlias);
+        return tableId != null && field != null
+            && field.equals(Database.getCatalog().getPrimaryKey(tableId));
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -334,7 +356,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // let the scan skip failing tuples without decoding them; only
+            // further predicates on the same table need a Filter
+            if (subplan instanceof SeqScan && ((SeqScan)subplan).getPredicate() == null)
+                ((SeqScan)subplan).setPredicate(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -348,6 +375,17 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated cardinality of each subplan, or -1 if there are no stats
+        HashMap<String,Integer> cardMap = new HashMap<String,Integer>();
+        for (LogicalScanNode table : tables) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            cardMap.put(table.alias, s == null ? -1 : s.estimateTableCardinality(filterSelectivities.get(table.alias)));
+        }
+
+        // fields each subplan is known to be in ascending order of; scans
+        // have no order
+        HashMap<String,Set<String>> orderMap = new HashMap<String,Set<String>>();
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -381,12 +419,30 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            int card1 = cardMap.get(t1name);
+            int card2 = isSubqueryJoin ? -1 : cardMap.get(t2name);
+
+            boolean sorted1 = orderMap.containsKey(t1name)
+                && orderMap.get(t1name).contains(lj.f1QuantifiedName);
+            boolean sorted2 = !isSubqueryJoin && orderMap.containsKey(t2name)
+                && orderMap.get(t2name).contains(lj.f2QuantifiedName);
+            // the last join can produce the ORDER BY order itself
+            boolean orderWanted = !joinIt.hasNext() && hasOrderBy && oByAsc && !hasAgg
+                && JoinOptimizer.mergeOrder(lj).contains(oByField);
+
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,card1,card2,sorted1,sorted2,orderWanted);
             subplanMap.put(t1name, j);
+            orderMap.put(t1name, JoinOptimizer.outputOrder(lj, j));
+            if (card1 < 0 || card2 < 0)
+                cardMap.put(t1name, -1);
+            else
+                cardMap.put(t1name, jo.estimateJoinCardinality(lj, card1, card2,
+                        isPkey(lj.t1Alias, lj.f1PureName), isPkey(lj.t2Alias, lj.f2PureName), statsMap));
 
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
+                orderMap.remove(t2name);
                 equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
                     //make sure anything that was equiv to lj.t2 (which we are just removed) is
                     // marked as equiv to lj.t1 (which we are replacing lj.t2 with.)
@@ -406,7 +462,9 @@ public class LogicalPlan {
             throw new ParsingException("Query does not include join expressions joining all nodes!");
         }
         
-        DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
+        Map.Entry<String,DbIterator> root = subplanMap.entrySet().iterator().next();
+        DbIterator node = root.getValue();
+        Set<String> nodeOrder = orderMap.get(root.getKey());
 
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
@@ -474,8 +532,14 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (hasOrderBy && !(oByAsc && !hasAgg && nodeOrder != null && nodeOrder.contains(oByField))) {
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIndex, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
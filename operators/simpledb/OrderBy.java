@@ -1,21 +1,70 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The child is sorted in memory when it fits on a budget of heap pages, by
+ * default the size of the BufferPool.  A larger child is sorted externally:
+ * replacement selection turns it into sorted runs, on average twice the
+ * size of the budget, which are written to {@link SpillFile}s; runs are
+ * then merged through a heap, as many at a time as the budget has pages
+ * to read them with, and the last merge streams its output to the parent.
+ * The sort is stable.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** System property with the default memory budget, in pages */
+    public static final String MEMORY_PAGES_PROPERTY = "simpledb.OrderBy.memoryPages";
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
     private int orderByField;
     private String orderByFieldName;
-    private Iterator<Tuple> it;
     private boolean asc;
 
+    /**
+     * Memory budget in pages, or -1 for the default
+     */
+    private int memoryPages;
+
+    private transient TupleComparator comparator;
+
+    /**
+     * The sorted child, when it fits in memory
+     */
+    private transient ArrayList<Tuple> childTups;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * The sorted runs, when the child does not fit in memory, and the heap
+     * of their next tuples for the final merge
+     */
+    private transient ArrayList<SpillFile> runs;
+    private transient PriorityQueue<Head> heads;
+
+    /**
+     * A tuple waiting in a heap, with the number of the run it belongs to
+     * and the order it was read in, which keep the sort stable
+     */
+    private static class Head {
+        Tuple tuple;
+        int run;
+        long seq;
+        DbFileIterator source;
+
+        Head(Tuple tuple, int run, long seq, DbFileIterator source) {
+            this.tuple = tuple;
+            this.run = run;
+            this.seq = seq;
+            this.source = source;
+        }
+    }
+
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
      * 
@@ -27,11 +76,30 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, -1);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the tuples held in memory may fill this many pages; -1 for
+     *            the value of the simpledb.OrderBy.memoryPages property, or
+     *            else the number of pages of the BufferPool
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int memoryPages) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryPages = memoryPages;
     }
     
     public boolean isASC()
@@ -53,24 +121,204 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * @return true if the child did not fit in memory and was sorted
+     *         externally
+     */
+    public boolean isSpilled() {
+        return runs != null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        int pages = memoryPages > 0 ? memoryPages
+                : Integer.getInteger(MEMORY_PAGES_PROPERTY, Database.getBufferPool().getNumPages());
+        pages = Math.max(2, pages);
+        int maxTuples = (int) Math.min(Integer.MAX_VALUE,
+                (long) pages * HeapPage.getNumTuples(td));
+        comparator = new TupleComparator(orderByField, asc);
+
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        // load the tuples that fit in a collection
+        childTups = new ArrayList<Tuple>();
+        while (childTups.size() < maxTuples && child.hasNext())
             childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        if (!child.hasNext()) {
+            Collections.sort(childTups, comparator);
+            it = childTups.iterator();
+        } else {
+            try {
+                makeRuns();
+                childTups = null;
+                // one page to read each run with, and one to write with
+                int fanIn = Math.max(2, pages - 1);
+                while (runs.size() > fanIn)
+                    mergePass(fanIn);
+            } catch (IOException e) {
+                throw new DbException("cannot write sort run: " + e.getMessage());
+            }
+            startMerge();
+        }
         super.open();
     }
 
+    /**
+     * Compares heap entries by run, then tuple, then reading order.
+     */
+    private Comparator<Head> headComparator() {
+        return new Comparator<Head>() {
+            public int compare(Head a, Head b) {
+                if (a.run != b.run)
+                    return a.run < b.run ? -1 : 1;
+                int c = comparator.compare(a.tuple, b.tuple);
+                if (c != 0)
+                    return c;
+                return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+            }
+        };
+    }
+
+    /**
+     * Write the tuples in childTups and the rest of the child as sorted runs
+     * by replacement selection: the smallest tuple in memory that can still
+     * extend the current run is written out and replaced by the next tuple
+     * of the child, which joins the next run if it sorts before the tuple
+     * just written.
+     */
+    private void makeRuns() throws IOException, DbException,
+            TransactionAbortedException {
+        runs = new ArrayList<SpillFile>();
+        PriorityQueue<Head> heap = new PriorityQueue<Head>(childTups.size(),
+                headComparator());
+        long seq = 0;
+        for (Tuple t : childTups)
+            heap.add(new Head(t, 0, seq++, null));
+        childTups.clear();
+
+        SpillFile out = null;
+        int run = -1;
+        while (!heap.isEmpty()) {
+            Head h = heap.poll();
+            if (h.run != run) {
+                run = h.run;
+                out = new SpillFile(td);
+                runs.add(out);
+            }
+            out.add(h.tuple);
+            if (child.hasNext()) {
+                Tuple t = child.next();
+                // reuse the entry for the tuple that replaces it
+                h.run = comparator.compare(t, h.tuple) < 0 ? run + 1 : run;
+                h.tuple = t;
+                h.seq = seq++;
+                heap.add(h);
+            }
+        }
+    }
+
+    /**
+     * Merge consecutive groups of fanIn runs, so that there are fewer runs.
+     */
+    private void mergePass(int fanIn) throws IOException, DbException,
+            TransactionAbortedException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0; i < runs.size(); i += fanIn) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+            PriorityQueue<Head> heap = openRuns(group);
+            SpillFile out = new SpillFile(td);
+            Tuple t;
+            while ((t = pollMerge(heap)) != null)
+                out.add(t);
+            for (SpillFile f : group)
+                f.delete();
+            merged.add(out);
+        }
+        runs = merged;
+    }
+
+    /**
+     * @return a heap holding the first tuple of each run, ordered so that
+     *         equal tuples come out in the order of their runs
+     */
+    private PriorityQueue<Head> openRuns(List<SpillFile> group)
+            throws IOException, DbException, TransactionAbortedException {
+        PriorityQueue<Head> heap = new PriorityQueue<Head>(Math.max(1, group.size()),
+                new Comparator<Head>() {
+                    public int compare(Head a, Head b) {
+                        int c = comparator.compare(a.tuple, b.tuple);
+                        if (c != 0)
+                            return c;
+                        return a.run < b.run ? -1 : (a.run == b.run ? 0 : 1);
+                    }
+                });
+        for (int i = 0; i < group.size(); i++) {
+            DbFileIterator source = group.get(i).iterator();
+            source.open();
+            if (source.hasNext())
+                heap.add(new Head(source.next(), i, 0, source));
+            else
+                source.close();
+        }
+        return heap;
+    }
+
+    /**
+     * @return the smallest tuple of a merge, or null when all its runs are
+     *         exhausted
+     */
+    private static Tuple pollMerge(PriorityQueue<Head> heap) throws DbException,
+            TransactionAbortedException {
+        Head h = heap.poll();
+        if (h == null)
+            return null;
+        Tuple t = h.tuple;
+        if (h.source.hasNext()) {
+            h.tuple = h.source.next();
+            heap.add(h);
+        } else {
+            h.source.close();
+        }
+        return t;
+    }
+
+    /**
+     * Start the final merge of the runs, whose output fetchNext returns.
+     */
+    private void startMerge() throws DbException, TransactionAbortedException {
+        closeMerge();
+        try {
+            heads = openRuns(runs);
+        } catch (IOException e) {
+            throw new DbException("cannot read sort run: " + e.getMessage());
+        }
+    }
+
+    private void closeMerge() {
+        if (heads != null) {
+            for (Head h : heads)
+                h.source.close();
+        }
+        heads = null;
+    }
+
     public void close() {
         super.close();
         it = null;
+        childTups = null;
+        closeMerge();
+        if (runs != null) {
+            for (SpillFile f : runs)
+                f.delete();
+        }
+        runs = null;
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs != null)
+            startMerge();
+        else
+            it = childTups.iterator();
     }
 
     /**
@@ -82,7 +330,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (heads != null) {
+            return pollMerge(heads);
+        } else if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
@@ -99,25 +349,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -134,6 +136,19 @@ public class Parser {
 
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
+        return parseQueryLogicalPlan(tid, q, -1);
+    }
+
+    /**
+     * Zql does not parse LIMIT clauses; they are taken off the end of a
+     * statement by {@link #stripLimit} before the rest is given to Zql, and
+     * passed here separately.
+     *
+     * @param limit the LIMIT of the query, or -1 if it has none
+     */
+    public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q,
+            int limit) throws IOException, Zql.ParseException,
+            simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
@@ -267,18 +282,64 @@ public class Parser {
             lp.addOrderBy(f.getValue(), oby.getAscOrder());
 
         }
+
+        if (limit >= 0) {
+            lp.addLimit(limit);
+        }
         return lp;
     }
 
+    /**
+     * A LIMIT clause at the end of a statement, before the optional ';'
+     */
+    private static final Pattern LIMIT_CLAUSE = Pattern
+            .compile("(?is)^(.*\\S)\\s+limit\\s+(\\d+)\\s*(;?)\\s*$");
+
+    /**
+     * @return the row count of the LIMIT clause at the end of the statement
+     *         s, or -1 if it has none
+     * @throws simpledb.ParsingException if the count is too large
+     */
+    static int parseLimit(String s) throws simpledb.ParsingException {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches())
+            return -1;
+        try {
+            return Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT " + m.group(2));
+        }
+    }
+
+    /**
+     * @return the statement s without the LIMIT clause at its end, which Zql
+     *         cannot parse
+     */
+    static String stripLimit(String s) {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches())
+            return s;
+        return m.group(1) + m.group(3);
+    }
+
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    /**
+     * @param limit the LIMIT of the query, or -1 if it has none
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
-        LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        LogicalPlan lp = parseQueryLogicalPlan(tId, s, limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,12 +526,13 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        int limit = parseLimit(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt, limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +565,15 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // take off a LIMIT clause before Zql sees the statement
+            String text = readStatementText(is);
+            int limit = parseLimit(text);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(stripLimit(text)
+                    .getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException(
+                        "LIMIT is only supported in queries.");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -525,7 +594,7 @@ public class Parser {
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
                         query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -578,10 +647,23 @@ public class Parser {
         }
     }
 
+    /**
+     * @return the contents of is, read as UTF-8
+     */
+    private static String readStatementText(InputStream is) throws IOException {
+        Reader r = new InputStreamReader(is, "UTF-8");
+        StringBuilder sb = new StringBuilder();
+        char[] buf = new char[4096];
+        int n;
+        while ((n = r.read(buf)) > 0)
+            sb.append(buf, 0, n);
+        return sb.toString();
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -607,6 +689,10 @@ public class Parser {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
         TableStats.computeStatistics();
+        // a binary catalog keeps the statistics, so the next start need not
+        // scan the tables again
+        if (Catalog.isBinaryCatalog(new File(argv[0])))
+            Database.getCatalog().saveSchema(argv[0]);
 
         String queryFile = null;
 
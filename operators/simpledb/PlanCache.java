@@ -1,50 +1,134 @@
 package simpledb;
-import java.util.HashMap;
-import java.util.Set;
 import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of tables.
+ * <p>
+ * A set of tables is a bitmask in a long, bit i standing for the i-th
+ * table of the query, so at most 64 tables can be planned.  The plans are
+ * kept in parallel primitive arrays of an open addressing hash table keyed
+ * by the mask: the best plan for a set joins the best plans of two smaller
+ * sets, so it is recorded as the left set and the join that combines it
+ * with the rest, and its join order is rebuilt from those on demand. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** Table set of each entry, or 0 for an empty entry; a power of two long */
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private double[] costs = new double[INITIAL_CAPACITY];
+    private int[] cards = new int[INITIAL_CAPACITY];
+    /** Tables of the left input of the last join, or 0 for a single table */
+    private long[] lefts = new long[INITIAL_CAPACITY];
+    /** Last join, its t1 in the left input; null for a single table */
+    private LogicalJoinNode[] joins = new LogicalJoinNode[INITIAL_CAPACITY];
+    private int size;
+
+    /** Add a new cost, cardinality and plan for a particular table set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified table set
+        @param s the set of tables for which a new plan is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param left the tables joined on the left of the plan's last join, or 0 if s is a single table
+        @param join the last join of the plan, or null if s is a single table
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+    void addPlan(long s, double cost, int card, long left, LogicalJoinNode join) {
+        int i = slot(s);
+        if (keys[i] == 0) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+                i = slot(s);
+            }
+            keys[i] = s;
+            size++;
+        }
+        costs[i] = cost;
+        cards[i] = card;
+        lefts[i] = left;
+        joins[i] = join;
+    }
+
+    /** @return the index of the entry for s, or of the empty entry where it would go */
+    private int slot(long s) {
+        int mask = keys.length - 1;
+        long h = s * 0x9E3779B97F4A7C15L;
+        int i = (int) (h ^ (h >>> 32)) & mask;
+        while (keys[i] != 0 && keys[i] != s)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldCosts = costs;
+        int[] oldCards = cards;
+        long[] oldLefts = lefts;
+        LogicalJoinNode[] oldJoins = joins;
+        int n = oldKeys.length * 2;
+        keys = new long[n];
+        costs = new double[n];
+        cards = new int[n];
+        lefts = new long[n];
+        joins = new LogicalJoinNode[n];
+        for (int k = 0; k < oldKeys.length; k++) {
+            if (oldKeys[k] == 0)
+                continue;
+            int i = slot(oldKeys[k]);
+            keys[i] = oldKeys[k];
+            costs[i] = oldCosts[k];
+            cards[i] = oldCards[k];
+            lefts[i] = oldLefts[k];
+            joins[i] = oldJoins[k];
+        }
+    }
+
+    /** @param s the set of tables to look up
+        @return true if the cache has a plan for s
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    boolean contains(long s) {
+        return keys[slot(s)] == s;
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the best join order in the cache for the specified table set:
+        the orders of the two inputs of its last join, then that join
+        @param s the set of tables to look up the best order for
+        @return the best order for s in the cache, or null if there is none
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    Vector<LogicalJoinNode> getOrder(long s) {
+        if (!contains(s))
+            return null;
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        addOrder(s, order);
+        return order;
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    private void addOrder(long s, Vector<LogicalJoinNode> order) {
+        int i = slot(s);
+        if (joins[i] == null)
+            return;
+        addOrder(lefts[i], order);
+        addOrder(s & ~lefts[i], order);
+        order.addElement(joins[i]);
+    }
+
+    /** Find the cost of the best plan in the cache for the specified table set
+        @param s the set of tables to look up the best cost for
+        @return the cost of the best plan for s in the cache
+    */
+    double getCost(long s) {
+        return costs[slot(s)];
+    }
+
+    /** Find the cardinality of the best plan in the cache for the specified table set
+        @param s the set of tables to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    int getCard(long s) {
+        return cards[slot(s)];
+    }
+
+    /** @return the number of table sets with a plan in the cache */
+    int size() {
+        return size;
     }
 }
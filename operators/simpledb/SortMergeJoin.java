@@ -0,0 +1,247 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two children that both return their
+ * tuples in ascending order of their join fields, for example because they
+ * are {@link OrderBy} operators or the output of another SortMergeJoin.
+ * <p>
+ * An equality join reads each child once, holding in memory only the run
+ * of child2's tuples that share the current join value.  A band join
+ * (&lt;, &lt;=, &gt;, &gt;=) takes each tuple of one child in turn and
+ * reads the other child from its start only as far as the predicate still
+ * holds, since the rest of it cannot match; its cost is proportional to the
+ * size of its output rather than to the product of its inputs, and it holds
+ * no tuples in memory.
+ * <p>
+ * Tuples whose join field is null are skipped.  The output is in ascending
+ * order of the join field of child1 for =, &gt; and &gt;= joins, and of the
+ * join field of child2 for =, &lt; and &lt;= joins.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate predicate;
+    private DbIterator child1;
+    private DbIterator child2;
+
+    /**
+     * Schema of the output tuples, merged once from the children's
+     */
+    private TupleDesc td;
+
+    /**
+     * Current tuple of child1, and the run of child2's tuples with its join
+     * value (equality joins only)
+     */
+    private transient Tuple left;
+    private transient ArrayList<Tuple> run;
+    private transient Field runKey;
+    private transient int runIdx;
+    /** First tuple of child2 after the run */
+    private transient Tuple nextRight;
+    private transient boolean started;
+
+    /**
+     * Current tuple of the outer child (band joins only)
+     */
+    private transient Tuple outer;
+    /** Whether the inner child has not been read since it was rewound */
+    private transient boolean innerFresh;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation to join, in ascending order
+     *            of its join field
+     * @param child2
+     *            Iterator for the right relation to join, in ascending order
+     *            of its join field
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+    	if(!supports(p.getOperator()))
+    		throw new IllegalArgumentException("SortMergeJoin does not support " + p.getOperator());
+    	this.predicate = p;
+    	this.child1 = child1;
+    	this.child2 = child2;
+    }
+
+    /**
+     * @return true if a SortMergeJoin can join on op
+     */
+    public static boolean supports(Predicate.Op op) {
+    	return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+    	return predicate;
+    }
+
+    public String getJoinField1Name() {
+    	return child1.getTupleDesc().getFieldName(predicate.getField1());
+    }
+
+    public String getJoinField2Name() {
+    	return child2.getTupleDesc().getFieldName(predicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+    	if(td == null) {
+    		td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    	}
+    	return td;
+    }
+
+    /**
+     * Whether a band join takes child1 as the outer child.  For &gt; and
+     * &gt;= the child2 tuples matching a child1 tuple are a prefix of
+     * child2; for &lt; and &lt;= it is the other way round.
+     */
+    private boolean leftOuter() {
+    	Predicate.Op op = predicate.getOperator();
+    	return op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    private void reset() {
+    	left = null;
+    	run = new ArrayList<Tuple>();
+    	runKey = null;
+    	runIdx = 0;
+    	nextRight = null;
+    	started = false;
+    	outer = null;
+    	innerFresh = true;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+    	reset();
+    	child1.open();
+    	child2.open();
+    	super.open();
+    }
+
+    public void close() {
+    	super.close();
+    	run = null;
+    	left = null;
+    	nextRight = null;
+    	outer = null;
+    	child1.close();
+    	child2.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+    	reset();
+    	child1.rewind();
+    	child2.rewind();
+    }
+
+    /**
+     * @return the next tuple of child whose field i is not null, or null
+     *         if there is none
+     */
+    private static Tuple nextKeyed(DbIterator child, int i)
+    		throws DbException, TransactionAbortedException {
+    	while(child.hasNext()) {
+    		Tuple t = child.next();
+    		if(t.getField(i) != null) return t;
+    	}
+    	return null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+    	if(predicate.getOperator() == Predicate.Op.EQUALS)
+    		return fetchEquals();
+    	return fetchBand();
+    }
+
+    private Tuple fetchEquals() throws TransactionAbortedException, DbException {
+    	int f1 = predicate.getField1();
+    	int f2 = predicate.getField2();
+    	if(!started) {
+    		started = true;
+    		nextRight = nextKeyed(child2, f2);
+    	}
+    	while(true) {
+    		if(left != null && runIdx < run.size()) {
+    			return new Tuple(getTupleDesc(), left, run.get(runIdx++));
+    		}
+    		left = nextKeyed(child1, f1);
+    		if(left == null) return null;
+    		runIdx = 0;
+    		Field key = left.getField(f1);
+    		if(runKey != null && key.compare(Predicate.Op.EQUALS, runKey)) {
+    			continue;	// a duplicate joins with the same run
+    		}
+
+    		// skip child2 up to the new join value and collect its run
+    		run.clear();
+    		runKey = key;
+    		while(nextRight != null && nextRight.getField(f2).compare(Predicate.Op.LESS_THAN, key)) {
+    			nextRight = nextKeyed(child2, f2);
+    		}
+    		while(nextRight != null && nextRight.getField(f2).compare(Predicate.Op.EQUALS, key)) {
+    			run.add(nextRight);
+    			nextRight = nextKeyed(child2, f2);
+    		}
+    		if(run.isEmpty() && nextRight == null) return null;	// child2 is used up
+    	}
+    }
+
+    private Tuple fetchBand() throws TransactionAbortedException, DbException {
+    	boolean leftOuter = leftOuter();
+    	DbIterator outerChild = leftOuter ? child1 : child2;
+    	DbIterator innerChild = leftOuter ? child2 : child1;
+    	int outerField = leftOuter ? predicate.getField1() : predicate.getField2();
+    	int innerField = leftOuter ? predicate.getField2() : predicate.getField1();
+    	while(true) {
+    		if(outer != null) {
+    			while(innerChild.hasNext()) {
+    				Tuple t = innerChild.next();
+    				innerFresh = false;
+    				if(t.getField(innerField) == null) continue;
+    				Tuple t1 = leftOuter ? outer : t;
+    				Tuple t2 = leftOuter ? t : outer;
+    				if(predicate.filter(t1, t2)) {
+    					return new Tuple(getTupleDesc(), t1, t2);
+    				}
+    				break;	// the inner child is sorted: nothing after t matches either
+    			}
+    			outer = null;
+    		}
+    		outer = nextKeyed(outerChild, outerField);
+    		if(outer == null) return null;
+    		if(!innerFresh) {
+    			innerChild.rewind();
+    			innerFresh = true;
+    		}
+    	}
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+    	return new DbIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    	this.child1 = children[0];
+    	this.child2 = children[1];
+    	this.td = null;
+    }
+
+}
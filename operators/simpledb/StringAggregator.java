@@ -1,12 +1,27 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Like {@link IntegerAggregator}, groups are hashed to slots by a
+ * {@link GroupTable} and counted in a long array indexed by slot.  Tuples
+ * whose aggregate or group-by field is null are not counted.
  */
 public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final int afield;
+    private final GroupTable groups;
+
+    /**
+     * Per-group count
+     */
+    private long[] count;
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -18,6 +33,11 @@ public class StringAggregator implements Aggregator {
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+    	if(what != Op.COUNT)
+    		throw new IllegalArgumentException("StringAggregator only supports COUNT, not " + what);
+    	this.afield = afield;
+    	this.groups = new GroupTable(gbfield, gbfieldtype);
+    	this.count = new long[gbfield == NO_GROUPING ? 1 : 16];
     }
 
     /**
@@ -26,6 +46,33 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
+    	merge(tup, true);
+    }
+
+    public boolean mergeTupleIfGroupExists(Tuple tup) {
+    	return merge(tup, false);
+    }
+
+    public int numGroups() {
+    	return groups.size();
+    }
+
+    /**
+     * @return false if the group of tup is new and add is false
+     */
+    private boolean merge(Tuple tup, boolean add) {
+    	if(!tup.isSet(afield)) return true;
+    	int before = groups.size();
+    	int slot = groups.slotOf(tup, add);
+    	if(slot == GroupTable.NO_SLOT) return false;
+    	if(slot == GroupTable.NULL_GROUP) return true;
+    	if(groups.size() > before) {
+    		if(slot == count.length) count = Arrays.copyOf(count, slot * 2);
+    		count[slot] = 1;
+    	} else {
+    		count[slot]++;
+    	}
+    	return true;
     }
 
     /**
@@ -38,7 +85,12 @@ public class StringAggregator implements Aggregator {
      */
     public DbIterator iterator() {
         // some code goes here
-        throw new UnsupportedOperationException("please implement me for proj2");
+    	TupleDesc td = groups.resultTupleDesc();
+    	ArrayList<Tuple> results = new ArrayList<Tuple>(groups.size());
+    	for(int slot = 0; slot < groups.size(); slot++) {
+    		results.add(groups.resultTuple(td, slot, (int)count[slot]));
+    	}
+    	return new TupleIterator(td, results);
     }
 
 }
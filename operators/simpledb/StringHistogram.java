@@ -0,0 +1,97 @@
+package simpledb;
+
+/**
+ * A histogram of the values of a string column.  Each string is reduced to
+ * an int made of its first four bytes, which orders strings the same way
+ * their prefixes do, and the ints go into an {@link IntHistogram}.  Strings
+ * that share a four byte prefix are thus counted as equal.
+ */
+public class StringHistogram {
+
+    /** Selectivity guessed for LIKE, which matches substrings anywhere */
+    private static final double LIKE_SELECTIVITY = 0.1;
+
+    private final IntHistogram hist;
+
+    /**
+     * Create a histogram of a sample of values.
+     *
+     * @param buckets
+     *            the largest number of buckets to use
+     * @param prefixes
+     *            the sampled values, each as given by {@link #stringToInt};
+     *            the first n are used
+     * @param n
+     *            the number of sampled values
+     */
+    public StringHistogram(int buckets, int[] prefixes, int n) {
+    	hist = new IntHistogram(buckets, prefixes, n);
+    }
+
+    /**
+     * Convert a string to the int that stands for it in the histogram: its
+     * first four characters as bytes, big-endian, with the sign bit flipped
+     * so that signed comparison of the ints agrees with comparison of the
+     * strings.  {@link Tuple} computes the same value for a stored string.
+     */
+    public static int stringToInt(String s) {
+    	int v = 0;
+    	for(int k = 0; k < 4; k++) {
+    		v <<= 8;
+    		if(k < s.length()) v |= s.charAt(k) & 0xff;
+    	}
+    	return v ^ 0x80000000;
+    }
+
+    /**
+     * Add a value to the histogram.
+     *
+     * @param prefix
+     *            the value, as given by {@link #stringToInt}
+     * @param weight
+     *            the number of sampled values it stands for
+     */
+    public void addValue(int prefix, double weight) {
+    	hist.addValue(prefix, weight);
+    }
+
+    /**
+     * Remove a value from the histogram.
+     *
+     * @param prefix
+     *            the value, as given by {@link #stringToInt}
+     * @param weight
+     *            the number of sampled values it stands for
+     */
+    public void removeValue(int prefix, double weight) {
+    	hist.removeValue(prefix, weight);
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this
+     * column.
+     *
+     * @param op
+     *            Operator
+     * @param s
+     *            Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, String s) {
+    	if(op == Predicate.Op.LIKE) return hist.numValues() <= 0 ? 0 : LIKE_SELECTIVITY;
+    	return hist.estimateSelectivity(op, stringToInt(s));
+    }
+
+    /**
+     * @return the average selectivity of op against a value drawn from this
+     *         column itself
+     */
+    public double avgSelectivity(Predicate.Op op) {
+    	if(op == Predicate.Op.LIKE) return hist.numValues() <= 0 ? 0 : LIKE_SELECTIVITY;
+    	return hist.avgSelectivity(op);
+    }
+
+    public String toString() {
+    	return hist.toString();
+    }
+}
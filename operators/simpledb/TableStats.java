@@ -1,9 +1,17 @@
 package simpledb;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -47,14 +55,30 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Pool that statistics are computed in; its workers scan the tables, and
+     * the page ranges of each table, in parallel.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
+        ArrayList<Integer> tableids = new ArrayList<Integer>();
+        ArrayList<ForkJoinTask<TableStats>> tasks = new ArrayList<ForkJoinTask<TableStats>>();
         while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            final int tableid = tableIt.next();
+            tableids.add(tableid);
+            tasks.add(POOL.submit(new Callable<TableStats>() {
+                public TableStats call() {
+                    return new TableStats(tableid, IOCOSTPERPAGE);
+                }
+            }));
+        }
+        for (int i = 0; i < tasks.size(); i++) {
+            int tableid = tableids.get(i);
+            setTableStats(Database.getCatalog().getTableName(tableid), tasks.get(i).join());
         }
         System.out.println("Done.");
     }
@@ -66,6 +90,71 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Number of tuples kept in the sample that the histograms are built
+     * from
+     */
+    static final int SAMPLE_SIZE = 10000;
+
+    /**
+     * Number of pages that one task of a parallel scan reads
+     */
+    static final int PAGES_PER_TASK = 32;
+
+    /**
+     * System property that sets how many pages of a table to sample instead
+     * of scanning all of them, unless a constructor is given a number; 0 or
+     * less scans every page.
+     */
+    public static final String SAMPLE_PAGES_PROPERTY = "simpledb.TableStats.samplePages";
+
+    /**
+     * Fraction of a table's tuples that may be inserted or deleted after its
+     * statistics are built before they are rebuilt in the background
+     */
+    static final double REFRESH_RATIO = 0.2;
+
+    /**
+     * Number of modifications that never triggers a rebuild, however small
+     * the table was
+     */
+    static final int MIN_REFRESH_MODIFICATIONS = 1000;
+
+    private final int tableid;
+    private final int ioCostPerPage;
+    private final int samplePages;
+    private final TupleDesc td;
+    private int numPages;
+    /** Number of tuples in the table, estimated if only a sample was read */
+    private int numTuples;
+
+    /** Histogram of each int column, or null */
+    private final IntHistogram[] intHists;
+    /** Histogram of each string column, or null */
+    private final StringHistogram[] strHists;
+    /**
+     * Number of sampled values that one tuple stands for in the histograms,
+     * as of when they were built
+     */
+    private final double tupleWeight;
+    /** Estimated number of distinct values of each column */
+    private final long[] distinct;
+    /** Sketch of the distinct values of each column, and whether it has
+     *  changed since distinct was last brought up to date with it */
+    private final HyperLogLog[] sketches;
+    private boolean sketchesChanged;
+    /** Smallest and largest value of each int column inserted since the
+     *  statistics were built */
+    private final int[] insertedMin;
+    private final int[] insertedMax;
+
+    /** Tuples inserted or deleted since the statistics were built */
+    private long modifications;
+    /** Number of modifications that triggers a background rebuild */
+    private final long refreshThreshold;
+    /** Whether a background rebuild has been started */
+    private boolean refreshing;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -85,6 +174,554 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+    	this(tableid, ioCostPerPage, Integer.getInteger(SAMPLE_PAGES_PROPERTY, 0));
+    }
+
+    /**
+     * Create a new TableStats object from the statistics the Catalog has
+     * recorded for the table, or else from one pass over the table or over
+     * a random sample of its pages.
+     * <p>
+     * Recorded statistics, for example those of a binary catalog loaded at
+     * startup, are used instead of reading the table if they have a
+     * distinct count for every column and the table still has as many pages
+     * as when they were recorded.  The histograms then assume the values
+     * of each column spread evenly over their range.
+     * <p>
+     * The pass keeps a reservoir sample of SAMPLE_SIZE tuples, from which the
+     * histograms are built, and a HyperLogLog sketch of each column for its
+     * number of distinct values.  Pages are read straight from the file
+     * rather than through the BufferPool, so that gathering statistics does
+     * not evict the pages that queries are using; pages that are cached
+     * are read from the pool, since they may have changes not written out.
+     * <p>
+     * The pages of a HeapFile are split into ranges of PAGES_PER_TASK that
+     * are scanned in parallel in a fork-join pool, each into its own partial
+     * sample and sketches, which are then merged.  Each range samples a
+     * share of SAMPLE_SIZE tuples in proportion to its number of pages, and
+     * the merge weights the partial samples by the tuples each range held.
+     * <p>
+     * After a scan of the whole table the counts are recorded in the
+     * Catalog's {@link TableStatistics}.  When only a sample is read, the
+     * tuple count recorded there is used if the table still has the same
+     * number of pages, and the sample's count is scaled up otherwise; the
+     * number of distinct values of each column is scaled up as well.
+     *
+     * @param tableid
+     *            The table over which to compute statistics
+     * @param ioCostPerPage
+     *            The cost per page of IO
+     * @param samplePages
+     *            The number of pages to read, chosen at random; 0 or less
+     *            reads every page
+     */
+    public TableStats(int tableid, int ioCostPerPage, int samplePages) {
+    	this(tableid, ioCostPerPage, samplePages, true);
+    }
+
+    /**
+     * @param useRecorded
+     *            false to read the table even if the Catalog has recorded
+     *            statistics for it
+     * @see #TableStats(int, int, int)
+     */
+    private TableStats(int tableid, int ioCostPerPage, int samplePages, boolean useRecorded) {
+    	this.tableid = tableid;
+    	this.ioCostPerPage = ioCostPerPage;
+    	this.samplePages = samplePages;
+    	DbFile f = Database.getCatalog().getDbFile(tableid);
+    	this.td = f.getTupleDesc();
+    	int numFields = td.numFields();
+
+    	Sample sample;
+    	boolean sampled = false;
+    	TableStatistics saved = Database.getCatalog().getTableStatistics(tableid);
+    	boolean recorded = false;
+    	if(f instanceof HeapFile) {
+    		numPages = ((HeapFile)f).numPages();
+    		recorded = useRecorded && isComplete(saved, numPages, numFields);
+    	}
+    	if(recorded) {
+    		sample = Sample.uniform(td, saved, SAMPLE_SIZE);
+    	} else if(f instanceof HeapFile) {
+    		int[] pages = choosePages(numPages, samplePages, new Random(tableid));
+    		sampled = pages.length < numPages;
+    		ScanTask scan = new ScanTask((HeapFile)f, pages, 0, pages.length, SAMPLE_SIZE);
+    		// when computeStatistics runs this in the pool, the scan's tasks
+    		// join the pool's other work instead of waiting on it
+    		sample = ForkJoinTask.inForkJoinPool() ? scan.invoke() : POOL.invoke(scan);
+    	} else {
+    		numPages = 0;
+    		sample = new Sample(td, SAMPLE_SIZE, new Random(tableid));
+    		DbFileIterator it = f.iterator(new TransactionId());
+    		try {
+    			it.open();
+    			while(it.hasNext()) sample.add(it.next());
+    		} catch (DbException e) {
+    			throw new RuntimeException(e);
+    		} catch (TransactionAbortedException e) {
+    			throw new RuntimeException(e);
+    		} finally {
+    			it.close();
+    		}
+    	}
+
+    	long total = sample.seen;
+    	if(sampled) {
+    		if(saved != null && saved.getNumPages() == numPages) {
+    			total = saved.getNumTuples();
+    		} else if(samplePages > 0) {
+    			total = Math.round((double)sample.seen * numPages / samplePages);
+    		}
+    	}
+    	numTuples = (int)Math.min(Integer.MAX_VALUE, total);
+
+    	intHists = new IntHistogram[numFields];
+    	strHists = new StringHistogram[numFields];
+    	distinct = new long[numFields];
+    	int n = sample.size;
+    	tupleWeight = numTuples > 0 ? (double)n / numTuples : 1;
+    	sketches = sample.sketches;
+    	insertedMin = new int[numFields];
+    	insertedMax = new int[numFields];
+    	Arrays.fill(insertedMin, Integer.MAX_VALUE);
+    	Arrays.fill(insertedMax, Integer.MIN_VALUE);
+    	refreshThreshold = Math.max(MIN_REFRESH_MODIFICATIONS, (long)(REFRESH_RATIO * numTuples));
+    	for(int i = 0; i < numFields; i++) {
+    		if(td.getFieldType(i) == Type.INT_TYPE) {
+    			intHists[i] = new IntHistogram(NUM_HIST_BINS, sample.values[i], n);
+    		} else {
+    			strHists[i] = new StringHistogram(NUM_HIST_BINS, sample.values[i], n);
+    		}
+    		long d = sample.sketches[i].estimate();
+    		if(recorded) {
+    			d = saved.getDistinct(i);
+    		} else if(sampled) {
+    			// the pages not read have values of their own
+    			d = Math.max(d, sample.scaledDistinct(i, numTuples));
+    		}
+    		distinct[i] = Math.max(Math.min(d, numTuples), numTuples > 0 ? 1 : 0);
+    	}
+
+    	if(!sampled && !recorded && inCatalog(tableid, f)) {
+    		Database.getCatalog().setTableStatistics(tableid, new TableStatistics(
+    				numPages, numTuples, sample.min, sample.max, distinct));
+    	}
+    }
+
+    /**
+     * @return true if saved is statistics of a table of numPages pages and
+     *         numFields columns with the distinct count of every column
+     */
+    private static boolean isComplete(TableStatistics saved, int numPages, int numFields) {
+    	if(saved == null || saved.getNumPages() != numPages || saved.getNumFields() != numFields)
+    		return false;
+    	for(int i = 0; i < numFields; i++) {
+    		if(saved.getDistinct(i) < 0) return false;
+    	}
+    	return true;
+    }
+
+    /**
+     * @return true if f is still the file of table tableid in the Catalog,
+     *         which it may have left while its statistics were computed
+     */
+    private static boolean inCatalog(int tableid, DbFile f) {
+    	try {
+    		return Database.getCatalog().getDbFile(tableid) == f;
+    	} catch (NoSuchElementException e) {
+    		return false;
+    	}
+    }
+
+    /**
+     * @return the page numbers to read out of numPages, in ascending order:
+     *         all of them, or a random samplePages of them
+     */
+    private static int[] choosePages(int numPages, int samplePages, Random rand) {
+    	if(samplePages <= 0 || samplePages >= numPages) {
+    		int[] all = new int[numPages];
+    		for(int i = 0; i < numPages; i++) all[i] = i;
+    		return all;
+    	}
+    	int[] chosen = new int[samplePages];
+    	for(int i = 0; i < numPages; i++) {
+    		if(i < samplePages) {
+    			chosen[i] = i;
+    		} else {
+    			int j = rand.nextInt(i + 1);
+    			if(j < samplePages) chosen[j] = i;
+    		}
+    	}
+    	Arrays.sort(chosen);	// read the file front to back
+    	return chosen;
+    }
+
+    /**
+     * Scans the pages[from, to) of a HeapFile into a Sample of at most quota
+     * tuples, splitting the range in two while it is longer than
+     * PAGES_PER_TASK.
+     */
+    private static class ScanTask extends RecursiveTask<Sample> {
+    	private static final long serialVersionUID = 1L;
+
+    	private final HeapFile f;
+    	private final int[] pages;
+    	private final int from;
+    	private final int to;
+    	private final int quota;
+
+    	ScanTask(HeapFile f, int[] pages, int from, int to, int quota) {
+    		this.f = f;
+    		this.pages = pages;
+    		this.from = from;
+    		this.to = to;
+    		this.quota = quota;
+    	}
+
+    	protected Sample compute() {
+    		if(to - from <= PAGES_PER_TASK) {
+    			Sample s = new Sample(f.getTupleDesc(), quota, new Random(f.getId() * 31L + from));
+    			BufferPool pool = Database.getBufferPool();
+    			for(int i = from; i < to; i++) {
+    				HeapPageId pid = new HeapPageId(f.getId(), pages[i]);
+    				Page cached = pool.peekPage(pid);
+    				HeapPage page = (HeapPage)(cached != null ? cached : f.readPage(pid));
+    				Iterator<Tuple> it = page.iterator();
+    				while(it.hasNext()) s.add(it.next());
+    			}
+    			return s;
+    		}
+    		int mid = (from + to) >>> 1;
+    		int leftQuota = (int)((long)quota * (mid - from) / (to - from));
+    		ScanTask left = new ScanTask(f, pages, from, mid, leftQuota);
+    		left.fork();
+    		Sample right = new ScanTask(f, pages, mid, to, quota - leftQuota).compute();
+    		return left.join().merge(right);
+    	}
+    }
+
+    /**
+     * What one pass over a table, or over part of it, collects: the number
+     * of tuples, the smallest and largest value of each int column, a
+     * reservoir sample of each column's values, and a distinct value sketch
+     * of each column.  String values are sampled as StringHistogram ints,
+     * and their hashes are sampled alongside to tell apart strings with the
+     * same prefix.  Tuples read from a table have every field set.
+     */
+    private static class Sample {
+    	final TupleDesc td;
+    	/** Number of tuples the sample may hold; the sum of the parts' after a merge */
+    	int capacity;
+    	final Random rand;
+    	long seen;
+    	/** Number of tuples in the sample */
+    	int size;
+    	final int[] min;
+    	final int[] max;
+    	int[][] values;
+    	/** Hashes of the sampled values of each string column, or null */
+    	int[][] hashes;
+    	final HyperLogLog[] sketches;
+
+    	Sample(TupleDesc td, int capacity, Random rand) {
+    		this.td = td;
+    		this.capacity = capacity;
+    		this.rand = rand;
+    		int numFields = td.numFields();
+    		min = new int[numFields];
+    		max = new int[numFields];
+    		values = new int[numFields][capacity];
+    		hashes = new int[numFields][];
+    		sketches = new HyperLogLog[numFields];
+    		for(int i = 0; i < numFields; i++) {
+    			if(td.getFieldType(i) == Type.STRING_TYPE) hashes[i] = new int[capacity];
+    			min[i] = Integer.MAX_VALUE;
+    			max[i] = Integer.MIN_VALUE;
+    			sketches[i] = new HyperLogLog();
+    		}
+    	}
+
+    	/**
+    	 * @return a sample as of a table with the recorded statistics, its
+    	 *         values of each column spread evenly over the column's range:
+    	 *         the int range for int columns, and all strings otherwise
+    	 */
+    	static Sample uniform(TupleDesc td, TableStatistics stats, int capacity) {
+    		Sample s = new Sample(td, capacity, new Random());
+    		s.seen = stats.getNumTuples();
+    		s.size = (int)Math.min(capacity, s.seen);
+    		for(int i = 0; i < s.values.length; i++) {
+    			long lo = Integer.MIN_VALUE;
+    			long hi = Integer.MAX_VALUE;
+    			if(td.getFieldType(i) == Type.INT_TYPE) {
+    				s.min[i] = stats.getMin(i);
+    				s.max[i] = stats.getMax(i);
+    				lo = s.min[i];
+    				hi = s.max[i];
+    			}
+    			// size values of d distinct ones, evenly spaced from lo to hi
+    			long d = Math.max(1, Math.min(s.size, stats.getDistinct(i)));
+    			for(int k = 0; k < s.size; k++) {
+    				long j = (long)k * d / s.size;
+    				s.values[i][k] = (int)(d == 1 ? lo : lo + j * (hi - lo) / (d - 1));
+    				if(s.hashes[i] != null) s.hashes[i][k] = (int)j;
+    			}
+    		}
+    		return s;
+    	}
+
+    	void add(Tuple t) {
+    		seen++;
+    		// reservoir sampling: the nth tuple replaces a random one with
+    		// probability capacity / n
+    		int slot = -1;
+    		if(seen <= capacity) {
+    			slot = (int)(seen - 1);
+    			size++;
+    		} else {
+    			long j = (long)(rand.nextDouble() * seen);
+    			if(j < capacity) slot = (int)j;
+    		}
+    		for(int i = 0; i < values.length; i++) {
+    			int v;
+    			if(td.getFieldType(i) == Type.INT_TYPE) {
+    				v = t.getInt(i);
+    				if(v < min[i]) min[i] = v;
+    				if(v > max[i]) max[i] = v;
+    				sketches[i].add(HyperLogLog.hash(v));
+    			} else {
+    				v = t.stringPrefix(i);
+    				int h = t.stringHash(i);
+    				sketches[i].add(HyperLogLog.hash(h));
+    				if(slot >= 0) hashes[i][slot] = h;
+    			}
+    			if(slot >= 0) values[i][slot] = v;
+    		}
+    	}
+
+    	/**
+    	 * Add what other collected from another part of the table to this
+    	 * sample; no tuples can be added after this.  Both samples are cut
+    	 * down to the same fraction of the tuples they saw, so that a part
+    	 * with fewer tuples per page than its share of the quota assumed is
+    	 * not over-represented.
+    	 *
+    	 * @return this
+    	 */
+    	Sample merge(Sample other) {
+    		long total = seen + other.seen;
+    		capacity += other.capacity;
+    		if(total > 0) {
+    			double rate = Math.min((double)capacity / total,
+    					Math.min(fraction(), other.fraction()));
+    			subsample(rate);
+    			other.subsample(rate);
+    		}
+    		seen = total;
+    		for(int i = 0; i < values.length; i++) {
+    			min[i] = Math.min(min[i], other.min[i]);
+    			max[i] = Math.max(max[i], other.max[i]);
+    			sketches[i].merge(other.sketches[i]);
+    			values[i] = concat(values[i], size, other.values[i], other.size);
+    			if(hashes[i] != null) hashes[i] = concat(hashes[i], size, other.hashes[i], other.size);
+    		}
+    		size += other.size;
+    		return this;
+    	}
+
+    	/**
+    	 * @return the fraction of the tuples seen that are in the sample
+    	 */
+    	private double fraction() {
+    		return seen == 0 ? 1 : (double)size / seen;
+    	}
+
+    	/**
+    	 * Keep a random rate of the tuples seen in the sample, moving them to
+    	 * its front.
+    	 */
+    	private void subsample(double rate) {
+    		int keep = (int)Math.min(size, Math.round(rate * seen));
+    		for(int k = 0; k < keep; k++) {
+    			int j = k + rand.nextInt(size - k);
+    			for(int i = 0; i < values.length; i++) {
+    				swap(values[i], k, j);
+    				if(hashes[i] != null) swap(hashes[i], k, j);
+    			}
+    		}
+    		size = keep;
+    	}
+
+    	private static void swap(int[] a, int k, int j) {
+    		int tmp = a[k];
+    		a[k] = a[j];
+    		a[j] = tmp;
+    	}
+
+    	private static int[] concat(int[] a, int n, int[] b, int m) {
+    		int[] merged = Arrays.copyOf(a, n + m);
+    		System.arraycopy(b, 0, merged, n, m);
+    		return merged;
+    	}
+
+    	/**
+    	 * Scale the number of distinct values of column i in the sample up
+    	 * to a table of total tuples with the Duj1 estimator of Haas et al.:
+    	 * the more of the sample's values are seen only once, the more of
+    	 * the table's values the sample has missed.  A sample of nothing but
+    	 * distinct values scales up to a key.
+    	 */
+    	long scaledDistinct(int i, long total) {
+    		if(size == 0 || total <= size) return 0;
+    		int[] sorted = Arrays.copyOf(hashes[i] != null ? hashes[i] : values[i], size);
+    		Arrays.sort(sorted);
+    		long once = 0;
+    		long d = 0;
+    		for(int k = 0; k < size; ) {
+    			int run = 1;
+    			while(k + run < size && sorted[k + run] == sorted[k]) run++;
+    			if(run == 1) once++;
+    			d++;
+    			k += run;
+    		}
+    		double unsampled = 1 - (double)size / total;
+    		return Math.round(d / (1 - unsampled * once / size));
+    	}
+    }
+
+    static {
+    	// statistics can only exist once this class is loaded, so this is
+    	// soon enough to start following inserts and deletes
+    	BufferPool.setTupleListener(new BufferPool.TupleListener() {
+    		public void tupleChanged(int tableId, Tuple t, boolean inserted) {
+    			if(inserted) tupleInserted(tableId, t);
+    			else tupleDeleted(tableId, t);
+    		}
+    	});
+    }
+
+    /**
+     * Update the statistics of a table, if there are any, for a tuple that
+     * was inserted into it through {@link BufferPool#insertTuple}.
+     */
+    static void tupleInserted(int tableid, Tuple t) {
+    	TableStats s = statsFor(tableid);
+    	if(s != null) s.addTuple(t);
+    }
+
+    /**
+     * Update the statistics of a table, if there are any, for a tuple that
+     * was deleted from it through {@link BufferPool#deleteTuple}.
+     */
+    static void tupleDeleted(int tableid, Tuple t) {
+    	TableStats s = statsFor(tableid);
+    	if(s != null) s.removeTuple(t);
+    }
+
+    private static TableStats statsFor(int tableid) {
+    	String name;
+    	try {
+    		name = Database.getCatalog().getTableName(tableid);
+    	} catch (NoSuchElementException e) {
+    		return null;
+    	}
+    	return name == null ? null : getTableStats(name);
+    }
+
+    /**
+     * Count an inserted tuple: one more tuple, its values in the histograms,
+     * and its hashes in the distinct value sketches.
+     */
+    synchronized void addTuple(Tuple t) {
+    	numTuples++;
+    	RecordId rid = t.getRecordId();
+    	if(rid != null) numPages = Math.max(numPages, rid.getPageId().pageNumber() + 1);
+    	for(int i = 0; i < td.numFields(); i++) {
+    		if(!t.isSet(i)) continue;
+    		if(intHists[i] != null) {
+    			int v = t.getInt(i);
+    			intHists[i].addValue(v, tupleWeight);
+    			sketches[i].add(HyperLogLog.hash(v));
+    			insertedMin[i] = Math.min(insertedMin[i], v);
+    			insertedMax[i] = Math.max(insertedMax[i], v);
+    		} else {
+    			strHists[i].addValue(t.stringPrefix(i), tupleWeight);
+    			sketches[i].add(HyperLogLog.hash(t.stringHash(i)));
+    		}
+    	}
+    	sketchesChanged = true;
+    	modified();
+    }
+
+    /**
+     * Count a deleted tuple: one tuple less, and its values out of the
+     * histograms.  The distinct value sketches cannot forget values, so
+     * distinct counts only shrink along with the number of tuples.
+     */
+    synchronized void removeTuple(Tuple t) {
+    	numTuples = Math.max(0, numTuples - 1);
+    	for(int i = 0; i < td.numFields(); i++) {
+    		if(!t.isSet(i)) continue;
+    		if(intHists[i] != null) intHists[i].removeValue(t.getInt(i), tupleWeight);
+    		else strHists[i].removeValue(t.stringPrefix(i), tupleWeight);
+    	}
+    	modified();
+    }
+
+    /**
+     * Start rebuilding the statistics in the background once enough of the
+     * table has changed.  The new statistics replace these in the stats map
+     * when they are done, unless these have been replaced in the meantime.
+     * Changes made while the rebuild scans the table may be missed by it;
+     * they are caught up with by the next rebuild.  If the table leaves the
+     * Catalog before the rebuild is done, the rebuild is dropped.
+     */
+    private void modified() {
+    	modifications++;
+    	if(refreshing || modifications < refreshThreshold) return;
+    	refreshing = true;
+    	saveCounts();
+    	final String name = Database.getCatalog().getTableName(tableid);
+    	POOL.execute(new Runnable() {
+    		public void run() {
+    			try {
+    				// the recorded statistics are the ones that went stale
+    				TableStats fresh = new TableStats(tableid, ioCostPerPage, samplePages, false);
+    				statsMap.replace(name, TableStats.this, fresh);
+    			} catch (NoSuchElementException e) {
+    				// the table has left the catalog, and these statistics with it
+    				statsMap.remove(name, TableStats.this);
+    			} catch (RuntimeException e) {
+    				e.printStackTrace();
+    				synchronized(TableStats.this) {
+    					// try again after as many more modifications
+    					refreshing = false;
+    					modifications = 0;
+    				}
+    			}
+    		}
+    	});
+    }
+
+    /**
+     * Bring the tuple count recorded in the Catalog up to date, so that a
+     * rebuild from sampled pages does not scale from a stale count.
+     */
+    private void saveCounts() {
+    	TableStatistics saved = Database.getCatalog().getTableStatistics(tableid);
+    	if(saved == null) return;
+    	int numFields = td.numFields();
+    	int[] min = new int[numFields];
+    	int[] max = new int[numFields];
+    	long[] d = new long[numFields];
+    	for(int i = 0; i < numFields; i++) {
+    		min[i] = Math.min(saved.getMin(i), insertedMin[i]);
+    		max[i] = Math.max(saved.getMax(i), insertedMax[i]);
+    		d[i] = numDistinct(i);
+    	}
+    	Database.getCatalog().setTableStatistics(tableid,
+    			new TableStatistics(numPages, numTuples, min, max, d));
     }
 
     /**
@@ -99,9 +736,9 @@ public class TableStats {
      * 
      * @return The estimated cost of scanning the table.
      */
-    public double estimateScanCost() {
+    public synchronized double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double)numPages * ioCostPerPage;
     }
 
     /**
@@ -113,9 +750,9 @@ public class TableStats {
      * @return The estimated cardinality of the scan with the specified
      *         selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int)(numTuples * selectivityFactor);
     }
 
     /**
@@ -128,9 +765,10 @@ public class TableStats {
      * tuple, of which we do not know the value of the field, return the
      * expected selectivity. You may estimate this value from the histograms.
      * */
-    public double avgSelectivity(int field, Predicate.Op op) {
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+    	if(intHists[field] != null) return intHists[field].avgSelectivity(op);
+    	return strHists[field].avgSelectivity(op);
     }
 
     /**
@@ -146,17 +784,31 @@ public class TableStats {
      * @return The estimated selectivity (fraction of tuples that satisfy) the
      *         predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+    	if(intHists[field] != null)
+    		return intHists[field].estimateSelectivity(op, ((IntField)constant).getValue());
+    	return strHists[field].estimateSelectivity(op, ((StringField)constant).getValue());
+    }
+
+    /**
+     * @return the estimated number of distinct values of the field
+     */
+    public synchronized long numDistinct(int field) {
+    	if(sketchesChanged) {
+    		for(int i = 0; i < distinct.length; i++)
+    			distinct[i] = Math.max(distinct[i], sketches[i].estimate());
+    		sketchesChanged = false;
+    	}
+    	return Math.min(distinct[field], numTuples);
     }
 
     /**
      * return the total number of tuples in this table
      * */
-    public int totalTuples() {
+    public synchronized int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of its child in the order an {@link OrderBy} on the same
+ * field would, without sorting the whole child.
+ * <p>
+ * The best n tuples seen so far are kept in a bounded heap whose root is the
+ * worst of them; a tuple from the child only enters the heap if it sorts
+ * before the root, which it then replaces.  Memory is proportional to n and
+ * time to the size of the child times log n.  Like OrderBy, TopN is stable:
+ * of tuples with equal values, the ones read first are kept and returned
+ * first.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int orderByField;
+    private boolean asc;
+    private int n;
+
+    /**
+     * The result, sorted, once open() has read the child
+     */
+    private transient Tuple[] top;
+    private transient int pos;
+
+    /**
+     * A tuple in the heap, with the order it was read in
+     */
+    private static class Entry {
+        Tuple tuple;
+        long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return; must not be negative
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int n, DbIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("negative limit " + n);
+        this.child = child;
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.n = n;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return child.getTupleDesc().getFieldName(orderByField);
+    }
+
+    /**
+     * @return the number of tuples this returns at most
+     */
+    public int getLimit() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        final TupleComparator cmp = new TupleComparator(orderByField, asc);
+        // orders entries best first
+        Comparator<Entry> order = new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                int c = cmp.compare(a.tuple, b.tuple);
+                if (c != 0)
+                    return c;
+                return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+            }
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, n),
+                Collections.reverseOrder(order));
+
+        child.open();
+        long seq = 0;
+        while (n > 0 && child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < n) {
+                heap.add(new Entry(t, seq++));
+            } else if (cmp.compare(t, heap.peek().tuple) < 0) {
+                // reuse the entry of the tuple it pushes out
+                Entry e = heap.poll();
+                e.tuple = t;
+                e.seq = seq++;
+                heap.add(e);
+            }
+        }
+
+        Entry[] entries = heap.toArray(new Entry[heap.size()]);
+        Arrays.sort(entries, order);
+        top = new Tuple[entries.length];
+        for (int i = 0; i < entries.length; i++)
+            top[i] = entries[i].tuple;
+        pos = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the best n tuples of the
+     * child in order
+     * 
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (top != null && pos < top.length)
+            return top[pos++];
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -1,7 +1,16 @@
 package simpledb;
 
 import java.io.*;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,6 +20,26 @@ import java.util.LinkedList;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Cached pages are kept in a hash table keyed by PageId that is split into
+ * shards by PageId.hashCode().  A lookup only holds the lock of the shard
+ * its page hashes to.  Each shard has its own {@link EvictionPolicy}, so
+ * large pools approximate the policy per shard.  Eviction is serialized on
+ * the BufferPool itself; code holding a shard lock must never try to take
+ * the BufferPool lock, so the lock order is always BufferPool, then shard.
+ * <p>
+ * The eviction policy is chosen by name: "lru", "clock", "2q" or "lru-k".
+ * The default can be changed with the system property
+ * simpledb.EvictionPolicy, e.g. -Dsimpledb.EvictionPolicy=2q.
+ * <p>
+ * Pages are read from disk at most once at a time: concurrent misses on the
+ * same page wait for the first reader.  Access methods can ask for pages
+ * they will need soon with {@link #prefetchPage}; those are read by a small
+ * pool of background threads.
+ * <p>
+ * Dirty pages are never evicted (NO STEAL): they stay cached until their
+ * transaction completes, which writes them out on commit and discards them
+ * on abort.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
@@ -21,16 +50,174 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
     
+    /** Maximum number of shards the page table is split into. Must be a power of two. */
+    static final int MAX_SHARDS = 16;
+    
+    /** Pools are only split further while every shard keeps at least this many pages. */
+    static final int MIN_PAGES_PER_SHARD = 64;
+    
+    /** System property naming the eviction policy used by BufferPool(int) */
+    public static final String EVICTION_POLICY_PROPERTY = "simpledb.EvictionPolicy";
+    
+    /** Eviction policy used when the system property is not set */
+    public static final String DEFAULT_EVICTION_POLICY = "lru";
+    
+    /** Number of background threads reading prefetched pages */
+    static final int PREFETCH_THREADS = 2;
+    
+    /**
+     * Threads that read prefetched pages; shared by all BufferPools and
+     * created on first use.
+     */
+    private static ExecutorService prefetcher;
+    
+    /**
+     * Is told about every tuple inserted or deleted through a BufferPool,
+     * for example to keep the query layer's table statistics up to date
+     */
+    public interface TupleListener {
+    	/**
+    	 * @param tableId the table t was inserted into or deleted from
+    	 * @param t the tuple
+    	 * @param inserted true if t was inserted, false if it was deleted
+    	 */
+    	void tupleChanged(int tableId, Tuple t, boolean inserted);
+    }
+    
+    /**
+     * Listener told about inserts and deletes by all BufferPools, or null
+     */
+    private static volatile TupleListener tupleListener;
+    
+    /**
+     * Set the listener told about every tuple inserted or deleted through a
+     * BufferPool, replacing any earlier one.
+     * 
+     * @param listener the listener, or null for none
+     */
+    public static void setTupleListener(TupleListener listener) {
+    	tupleListener = listener;
+    }
+    
+    /**
+     * One shard of the page table.  All access to frames and to the shard's
+     * eviction policy goes through the shard's monitor.
+     */
+    private static class Shard {
+    	private final HashMap<PageId, Page> frames = new HashMap<PageId, Page>();
+    	private final EvictionPolicy policy;
+    	
+    	Shard(EvictionPolicy policy) {
+    		this.policy = policy;
+    	}
+    	
+    	synchronized Page get(PageId pid) {
+    		Page page = frames.get(pid);
+    		if(page != null) policy.pageAccessed(pid);
+    		return page;
+    	}
+    	
+    	/**
+    	 * Like get, but does not count as an access
+    	 */
+    	synchronized boolean contains(PageId pid) {
+    		return frames.containsKey(pid);
+    	}
+    	
+    	/**
+    	 * Add page unless another thread cached the same page first.
+    	 * @return the page now cached under page.getId()
+    	 */
+    	synchronized Page putIfAbsent(Page page) {
+    		Page cur = frames.get(page.getId());
+    		if(cur != null) return cur;
+    		frames.put(page.getId(), page);
+    		policy.pageAdded(page.getId());
+    		return page;
+    	}
+    	
+    	/**
+    	 * Cache page, replacing any other copy of the same page.
+    	 * @return the copy replaced, or null
+    	 */
+    	synchronized Page put(Page page) {
+    		Page old = frames.put(page.getId(), page);
+    		if(old == null) policy.pageAdded(page.getId());
+    		else policy.pageAccessed(page.getId());
+    		return old;
+    	}
+    	
+    	/**
+    	 * Like get, but does not count as an access
+    	 */
+    	synchronized Page peek(PageId pid) {
+    		return frames.get(pid);
+    	}
+    	
+    	synchronized Page remove(PageId pid) {
+    		Page page = frames.remove(pid);
+    		if(page != null) policy.pageRemoved(pid);
+    		return page;
+    	}
+    	
+    	/**
+    	 * Remove the clean page the policy would rather evict than any other
+    	 * clean page.  Dirty pages the policy offers are passed over, and
+    	 * re-added to it afterwards.
+    	 * 
+    	 * @return the removed page, or null if every page of the shard is dirty
+    	 */
+    	synchronized Page evictClean() {
+    		ArrayList<PageId> dirty = new ArrayList<PageId>();
+    		try {
+    			PageId pid;
+    			while((pid = policy.victim()) != null) {
+    				Page page = frames.get(pid);
+    				if(page == null || page.isDirty() == null) {
+    					frames.remove(pid);
+    					policy.pageRemoved(pid);
+    					if(page != null) return page;
+    				} else {
+    					policy.pageRemoved(pid);
+    					dirty.add(pid);
+    				}
+    			}
+    			return null;
+    		} finally {
+    			for(PageId pid: dirty) policy.pageAdded(pid);
+    		}
+    	}
+    	
+    	synchronized ArrayList<Page> pages() {
+    		return new ArrayList<Page>(frames.values());
+    	}
+    }
     
     /**
      * numPages
      */
-    private int numPages;
+    private final int numPages;
+    
+    /**
+     * Shards of the page table; the length is a power of two
+     */
+    private final Shard[] shards;
+    
+    /**
+     * Number of frames currently in use, including frames reserved by
+     * readers that are still fetching their page from disk.
+     */
+    private final AtomicInteger usedFrames;
+    
+    /**
+     * Shard the next eviction starts looking at
+     */
+    private int evictHand;
     
     /**
-     * List to store pages
+     * Reads in progress, so that a page is only read once at a time
      */
-    private LinkedList<Page> pages;
+    private final ConcurrentHashMap<PageId, FutureTask<Page>> loading;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -38,9 +225,82 @@ public class BufferPool {
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+    	this(numPages, System.getProperty(EVICTION_POLICY_PROPERTY, DEFAULT_EVICTION_POLICY));
+    }
+    
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts
+     * them with the named policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy one of "lru", "clock", "2q" or "lru-k"
+     * @throws IllegalArgumentException if the policy name is unknown
+     */
+    public BufferPool(int numPages, String evictionPolicy) {
         // some code goes here
     	this.numPages = numPages;
-    	this.pages = new LinkedList<Page>();
+    	int numShards = 1;
+    	while(numShards < MAX_SHARDS && numPages / (numShards * 2) >= MIN_PAGES_PER_SHARD) {
+    		numShards *= 2;
+    	}
+    	int shardPages = (numPages + numShards - 1) / numShards;
+    	this.shards = new Shard[numShards];
+    	for(int i = 0; i < numShards; i++) {
+    		shards[i] = new Shard(newEvictionPolicy(evictionPolicy, shardPages));
+    	}
+    	this.usedFrames = new AtomicInteger(0);
+    	this.evictHand = 0;
+    	this.loading = new ConcurrentHashMap<PageId, FutureTask<Page>>();
+    }
+    
+    /**
+     * @return the maximum number of pages this buffer pool caches
+     */
+    public int getNumPages() {
+    	return numPages;
+    }
+    
+    /**
+     * @return the number of frames not holding a page, which an operator
+     *         may take as a budget for memory of its own without forcing
+     *         cached pages out
+     */
+    public int getNumFreePages() {
+    	return Math.max(0, numPages - usedFrames.get());
+    }
+    
+    /**
+     * @param name one of "lru", "clock", "2q" or "lru-k" (case insensitive)
+     * @param capacity the number of pages the policy will manage
+     * @throws IllegalArgumentException if the policy name is unknown
+     */
+    private static EvictionPolicy newEvictionPolicy(String name, int capacity) {
+    	String n = name.trim().toLowerCase();
+    	if(n.equals("lru")) return new LruEvictionPolicy();
+    	if(n.equals("clock")) return new ClockEvictionPolicy();
+    	if(n.equals("2q")) return new TwoQueueEvictionPolicy(capacity);
+    	if(n.equals("lru-k")) return new LruKEvictionPolicy(capacity);
+    	throw new IllegalArgumentException("Unknown eviction policy " + name);
+    }
+    
+    /**
+     * @return the shard that pid hashes to
+     */
+    private Shard shardFor(PageId pid) {
+    	int h = pid.hashCode();
+    	h ^= (h >>> 16);
+    	return shards[h & (shards.length - 1)];
+    }
+    
+    /**
+     * Reserve a frame for a page about to be read in, evicting pages while
+     * the pool is full.
+     */
+    private synchronized void reserveFrame() throws DbException {
+    	while(usedFrames.get() >= numPages) {
+    		evictPage();
+    	}
+    	usedFrames.incrementAndGet();
     }
 
     /**
@@ -63,24 +323,112 @@ public class BufferPool {
         // some code goes here
         // return null;
     	
-    	// read from buffer pool
-    	for(Page page: pages) {
-    		if(pid.equals(page.getId())) {
-    			TransactionId curTid = page.isDirty();
-    			if((curTid != null && tid.equals(curTid)) ||
-    					(curTid == null)) {
-    				return page;
+    	Shard shard = shardFor(pid);
+    	while(true) {
+    		Page page = shard.get(pid);
+    		if(page != null) return page;
+    		
+    		// miss: read the page ourselves unless somebody else already is
+    		FutureTask<Page> task = newLoadTask(pid);
+    		FutureTask<Page> pending = loading.putIfAbsent(pid, task);
+    		if(pending == null) {
+    			try {
+    				task.run();
+    			} finally {
+    				loading.remove(pid, task);
     			}
+    			return awaitLoad(task);
+    		}
+    		// wait for the other reader, then look again: a failed prefetch
+    		// or an eviction in between just means we read the page ourselves
+    		try {
+    			pending.get();
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    			throw new DbException("interrupted while waiting for page " + pid.pageNumber());
+    		} catch (ExecutionException e) {
+    			// ignored, see above
     		}
     	}
-    	
-    	// read from dbfile
-    	Catalog catalog = Database.getCatalog();
-    	DbFile dbFile = catalog.getDbFile(pid.getTableId());
-    	Page page = dbFile.readPage(pid);
-    	pages.add(page);
-    	
-    	return page;
+    }
+    
+    /**
+     * Ask for a page to be read into the pool in the background, because it
+     * will be requested soon.  Does nothing if the page is cached or is
+     * already being read.  Errors are ignored; they will surface when the
+     * page is requested with {@link #getPage}.
+     *
+     * @param pid the ID of the page to read
+     */
+    public void prefetchPage(PageId pid) {
+    	if(shardFor(pid).contains(pid) || loading.containsKey(pid)) return;
+    	final PageId id = pid;
+    	final FutureTask<Page> task = newLoadTask(pid);
+    	if(loading.putIfAbsent(pid, task) != null) return;
+    	getPrefetcher().execute(new Runnable() {
+    		public void run() {
+    			try {
+    				task.run();
+    			} finally {
+    				loading.remove(id, task);
+    			}
+    		}
+    	});
+    }
+    
+    private static synchronized ExecutorService getPrefetcher() {
+    	if(prefetcher == null) {
+    		prefetcher = Executors.newFixedThreadPool(PREFETCH_THREADS, new ThreadFactory() {
+    			public Thread newThread(Runnable r) {
+    				Thread t = new Thread(r, "simpledb-prefetch");
+    				t.setDaemon(true);
+    				return t;
+    			}
+    		});
+    	}
+    	return prefetcher;
+    }
+    
+    /**
+     * @return a task that reads pid from its DbFile into a reserved frame
+     *         and returns the cached page
+     */
+    private FutureTask<Page> newLoadTask(final PageId pid) {
+    	return new FutureTask<Page>(new Callable<Page>() {
+    		public Page call() throws DbException {
+    			reserveFrame();
+    			Page cached = null;
+    			try {
+    				DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
+    				Page page = dbFile.readPage(pid);
+    				if(page == null) throw new DbException("could not read page " + pid.pageNumber());
+    				cached = shardFor(pid).putIfAbsent(page);
+    				// the page was cached by a writer while we were on disk
+    				if(cached != page) usedFrames.decrementAndGet();
+    				return cached;
+    			} finally {
+    				if(cached == null) usedFrames.decrementAndGet();
+    			}
+    		}
+    	});
+    }
+    
+    /**
+     * @return the page read by task, rethrowing whatever the read threw
+     */
+    private static Page awaitLoad(FutureTask<Page> task) throws DbException {
+    	try {
+    		return task.get();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new DbException("interrupted while reading page");
+    	} catch (ExecutionException e) {
+    		Throwable cause = e.getCause();
+    		if(cause instanceof DbException) throw (DbException)cause;
+    		if(cause instanceof RuntimeException) throw (RuntimeException)cause;
+    		if(cause instanceof Error) throw (Error)cause;
+    		throw new DbException("could not read page: " + cause);
+    	}
     }
 
     /**
@@ -105,6 +453,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+    	transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -125,6 +474,19 @@ public class BufferPool {
         throws IOException {
         // some code goes here
         // not necessary for proj1
+    	// the pages tid dirtied cannot have been evicted, so they are all
+    	// still here to write out or to throw away
+    	for(Shard shard: shards) {
+    		for(Page page: shard.pages()) {
+    			if(!tid.equals(page.isDirty())) continue;
+    			if(commit) {
+    				flushPage(page.getId());
+    				page.setBeforeImage();
+    			} else {
+    				discardPage(page.getId());
+    			}
+    		}
+    	}
     }
 
     /**
@@ -145,6 +507,12 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
+    	DbFile dbFile = Database.getCatalog().getDbFile(tableId);
+    	for(Page page : dbFile.insertTuple(tid, t)) {
+    		cacheDirtyPage(tid, page);
+    	}
+    	TupleListener listener = tupleListener;
+    	if(listener != null) listener.tupleChanged(tableId, t, true);
     }
 
     /**
@@ -164,6 +532,36 @@ public class BufferPool {
         throws DbException, TransactionAbortedException {
         // some code goes here
         // not necessary for proj1
+    	RecordId rid = t.getRecordId();
+    	if(rid == null) throw new DbException("tuple is not stored in a table");
+    	int tableId = rid.getPageId().getTableId();
+    	DbFile dbFile = Database.getCatalog().getDbFile(tableId);
+    	cacheDirtyPage(tid, dbFile.deleteTuple(tid, t));
+    	TupleListener listener = tupleListener;
+    	if(listener != null) listener.tupleChanged(tableId, t, false);
+    }
+    
+    /**
+     * Mark a page modified by tid dirty, and make sure it is the copy of
+     * the page that is cached; it may have been evicted since the access
+     * method fetched it.
+     */
+    private void cacheDirtyPage(TransactionId tid, Page page) throws DbException {
+    	page.markDirty(true, tid);
+    	Shard shard = shardFor(page.getId());
+    	if(shard.peek(page.getId()) == page) return;
+    	reserveFrame();
+    	if(shard.put(page) != null) usedFrames.decrementAndGet();
+    }
+    
+    /**
+     * @return the cached copy of a page, or null if it is not cached.  Does
+     *         not count as an access, read the page or take any lock; for
+     *         readers such as statistics gathering that only want to see
+     *         changes not yet written out.
+     */
+    Page peekPage(PageId pid) {
+    	return shardFor(pid).peek(pid);
     }
 
     /**
@@ -173,8 +571,11 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-        // not necessary for proj1
-
+    	for(Shard shard: shards) {
+    		for(Page page: shard.pages()) {
+    			flushPage(page.getId());
+    		}
+    	}
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -184,7 +585,9 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
-    	// not necessary for proj1
+    	if(shardFor(pid).remove(pid) != null) {
+    		usedFrames.decrementAndGet();
+    	}
     }
 
     /**
@@ -193,23 +596,42 @@ public class BufferPool {
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
-        // not necessary for proj1
+    	Page page = shardFor(pid).peek(pid);
+    	if(page == null || page.isDirty() == null) return;
+    	DbFile dbFile = Database.getCatalog().getDbFile(pid.getTableId());
+    	dbFile.writePage(page);
+    	page.markDirty(false, null);
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for proj1
+    	for(Shard shard: shards) {
+    		for(Page page: shard.pages()) {
+    			if(tid.equals(page.isDirty())) {
+    				flushPage(page.getId());
+    			}
+    		}
+    	}
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Only clean pages are evicted, so no uncommitted change reaches disk.
+     * @throws DbException if every cached page is dirty
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
-        // not necessary for proj1
+    	for(int i = 0; i < shards.length; i++) {
+    		Shard shard = shards[evictHand];
+    		evictHand = (evictHand + 1) & (shards.length - 1);
+    		if(shard.evictClean() != null) {
+    			usedFrames.decrementAndGet();
+    			return;
+    		}
+    	}
+    	throw new DbException("no page to evict: every cached page is dirty");
     }
 
 }
@@ -1,10 +1,22 @@
 package simpledb;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -24,6 +36,8 @@ public class Catalog {
 		private DbFile file;
 		private String name;
 		private String keyFieldName;
+		/** Persisted statistics, or null */
+		private volatile TableStatistics stats;
 		
 		public Table(DbFile file, String name, String keyFieldName) {
 			this.file = file;
@@ -49,9 +63,29 @@ public class Catalog {
 	}
 	
 	/**
-	 * ArrayList to store dbfiles
+	 * Tables indexed by id and by name
 	 */
-	ArrayList<Table> tables;
+	private final ConcurrentHashMap<Integer, Table> tablesById;
+	private final ConcurrentHashMap<String, Table> tablesByName;
+	
+	/**
+	 * An immutable view of which tables the catalog held at one version
+	 */
+	private static class Snapshot {
+		private final long version;
+		private final List<Integer> tableIds;
+		
+		Snapshot(long version, List<Integer> tableIds) {
+			this.version = version;
+			this.tableIds = Collections.unmodifiableList(tableIds);
+		}
+	}
+	
+	/**
+	 * Current snapshot; replaced, never modified, by every change to the
+	 * catalog.  Changes are serialized on this Catalog's monitor.
+	 */
+	private volatile Snapshot snapshot;
 
     /**
      * Constructor.
@@ -59,7 +93,9 @@ public class Catalog {
      */
     public Catalog() {
         // some code goes here
-    	tables = new ArrayList<Table>();
+    	tablesById = new ConcurrentHashMap<Integer, Table>();
+    	tablesByName = new ConcurrentHashMap<String, Table>();
+    	snapshot = new Snapshot(0, new ArrayList<Integer>());
     }
 
     /**
@@ -71,9 +107,24 @@ public class Catalog {
      * @param pkeyField the name of the primary key field
      * conflict exists, use the last table to be added as the table for a given name.
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
-    	tables.add(new Table(file, name, pkeyField));
+    	ArrayList<Integer> ids = new ArrayList<Integer>(snapshot.tableIds);
+    	putTable(new Table(file, name, pkeyField), ids);
+    	snapshot = new Snapshot(snapshot.version + 1, ids);
+    }
+
+    /**
+     * Index a table, replacing any table with the same id, and append its id
+     * to ids if it is new.  The caller holds the monitor and publishes the
+     * new snapshot.
+     */
+    private void putTable(Table t, ArrayList<Integer> ids) {
+    	Table old = tablesById.put(t.getTableId(), t);
+    	if(old != null && tablesByName.get(old.getTableName()) == old)
+    		tablesByName.remove(old.getTableName());
+    	tablesByName.put(t.getTableName(), t);
+    	if(old == null) ids.add(t.getTableId());
     }
 
     public void addTable(DbFile file, String name) {
@@ -99,15 +150,27 @@ public class Catalog {
         // some code goes here
         // return 0;
     	if(name == null) throw new NoSuchElementException();
-    	
-    	for(Table t: tables) {
-    		String tableName = t.getTableName();
-    		if(tableName.equals(name)) {
-    			return t.getTableId();
-    		}
-    	}
-    	
-    	throw new NoSuchElementException();
+    	return getTable(name).getTableId();
+    }
+
+    /**
+     * @return the table with the given id
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    private Table getTable(int tableid) throws NoSuchElementException {
+    	Table t = tablesById.get(tableid);
+    	if(t == null) throw new NoSuchElementException("no table with id " + tableid);
+    	return t;
+    }
+
+    /**
+     * @return the table with the given name
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    private Table getTable(String name) throws NoSuchElementException {
+    	Table t = tablesByName.get(name);
+    	if(t == null) throw new NoSuchElementException("no table named " + name);
+    	return t;
     }
 
     /**
@@ -119,12 +182,7 @@ public class Catalog {
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
         // some code goes here
     	// return null
-    	for(Table t: tables) {
-    		if(t.getTableId() == tableid) {
-    			return t.getDbFile().getTupleDesc();
-    		}
-    	}
-    	throw new NoSuchElementException();
+    	return getTable(tableid).getDbFile().getTupleDesc();
     }
 
     /**
@@ -136,54 +194,103 @@ public class Catalog {
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
         // some code goes here
         // return null;
-    	for(Table t: tables) {
-    		if(t.getTableId() == tableid) {
-    			return t.getDbFile();
-    		}
-    	}
-    	throw new NoSuchElementException();
+    	return getTable(tableid).getDbFile();
     }
 
     public String getPrimaryKey(int tableid) {
         // some code goes here
         // return null;
-    	for(Table t: tables) {
-    		if(t.getTableId() == tableid) {
-    			return t.getKeyFieldName();
-    		}
-    	}
-    	throw new NoSuchElementException();
+    	return getTable(tableid).getKeyFieldName();
     }
 
+    /**
+     * @return an iterator over the ids of the tables in the catalog, in the
+     *         order they were added, as of the current version.  Later
+     *         changes to the catalog do not affect the iterator.
+     */
     public Iterator<Integer> tableIdIterator() {
         // some code goes here
         // return null;
-    	ArrayList<Integer> tableIds = new ArrayList<Integer>();
-    	for(Table t: tables) {
-    		tableIds.add(t.getTableId());
-    	}
-    	return tableIds.iterator();
+    	return snapshot.tableIds.iterator();
+    }
+
+    /**
+     * @return the version of the catalog, which increases every time a
+     *         table is added or the catalog is cleared.  Callers that cache
+     *         information about tables can compare versions to see whether
+     *         it may be stale.
+     */
+    public long getVersion() {
+    	return snapshot.version;
+    }
+
+    /**
+     * @return the statistics recorded for the specified table, or null if
+     *         there are none
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public TableStatistics getTableStatistics(int tableid) throws NoSuchElementException {
+    	return getTable(tableid).stats;
+    }
+
+    /**
+     * Record statistics for the specified table; they are written out by
+     * {@link #saveSchema}.
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public void setTableStatistics(int tableid, TableStatistics stats) throws NoSuchElementException {
+    	getTable(tableid).stats = stats;
     }
 
     public String getTableName(int id) {
         // some code goes here
         // return null;
-    	return tables.get(id).getTableName();
+    	return getTable(id).getTableName();
     }
     
     /** Delete all tables from the catalog */
-    public void clear() {
+    public synchronized void clear() {
         // some code goes here
-    	tables.clear();
+    	for(Table t: tablesById.values()) {
+    		if(t.getDbFile() instanceof HeapFile)
+    			((HeapFile)t.getDbFile()).close();
+    	}
+    	tablesById.clear();
+    	tablesByName.clear();
+    	snapshot = new Snapshot(snapshot.version + 1, new ArrayList<Integer>());
     }
     
+    /**
+     * Magic number at the start of a binary catalog file
+     */
+    static final int CATALOG_MAGIC = 0x53444243;
+
+    /**
+     * Version of the binary catalog file format
+     */
+    static final int CATALOG_FORMAT = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * The file is either a text schema, one table per line, or a binary
+     * catalog written by {@link #saveSchema}.
      * @param catalogFile
+     * @throws IllegalArgumentException if the file cannot be read or is invalid
      */
     public void loadSchema(String catalogFile) {
+        try {
+            if (isBinaryCatalog(new File(catalogFile))) {
+                loadBinarySchema(new File(catalogFile));
+                return;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read catalog " + catalogFile, e);
+        }
+
         String line = "";
-        String baseFolder=new File(catalogFile).getParent();
+        String baseFolder=new File(catalogFile).getAbsoluteFile().getParent();
         try {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
             
@@ -203,32 +310,218 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
-                    else {
-                        System.out.println("Unknown type " + els2[1]);
-                        System.exit(0);
-                    }
+                    else
+                        throw new IllegalArgumentException("Unknown type " + els2[1]);
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
-                        else {
-                            System.out.println("Unknown annotation " + els2[2]);
-                            System.exit(0);
-                        }
+                        else
+                            throw new IllegalArgumentException("Unknown annotation " + els2[2]);
                     }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, assignTableId(name));
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(0);
+            throw new IllegalArgumentException("cannot read catalog " + catalogFile, e);
         } catch (IndexOutOfBoundsException e) {
-            System.out.println ("Invalid catalog entry : " + line);
-            System.exit(0);
+            throw new IllegalArgumentException("Invalid catalog entry : " + line, e);
+        }
+    }
+
+    /**
+     * Choose the id of a table created from a schema file.  The id is
+     * derived from the table name, not the data file's path, so it stays the
+     * same when the data directory moves, and a table that replaces another
+     * of the same name takes over its id.  Ids of a binary catalog are
+     * stored in it instead, see {@link #saveSchema}.
+     *
+     * @throws IllegalArgumentException if another table already has the id,
+     *         because probing for a free one would make ids depend on the
+     *         order tables are loaded in
+     */
+    private synchronized int assignTableId(String name) {
+        Table old = tablesByName.get(name);
+        if (old != null)
+            return old.getTableId();
+        int id = name.hashCode();
+        Table other = tablesById.get(id);
+        if (other != null)
+            throw new IllegalArgumentException("table " + name + " would get id " + id
+                    + ", which table " + other.getTableName() + " already has; rename one of them");
+        return id;
+    }
+
+    /**
+     * @return true if f starts like a binary catalog written by saveSchema
+     */
+    static boolean isBinaryCatalog(File f) throws IOException {
+        if (f.length() < 4)
+            return false;
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            return in.readInt() == CATALOG_MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Write the tables in this catalog, with their statistics, to a binary
+     * catalog file that {@link #loadSchema} reads back.  Tables that are not
+     * stored in a HeapFile are skipped.  Data files in the same directory
+     * as the catalog are recorded by name, so the directory can be moved.
+     * <p>
+     * The format is the magic number, the format version and the number of
+     * tables, followed for each table by its id, name, primary key, data
+     * file, field types and names, and optionally its statistics.  Strings
+     * are an int byte count (-1 for null) followed by UTF-8 bytes.
+     * <p>
+     * The catalog is written to a temporary file that then replaces
+     * catalogFile, so that a catalog being read, or memory-mapped by an
+     * earlier load, is never seen half written.
+     * @param catalogFile the file to write
+     */
+    public void saveSchema(String catalogFile) throws IOException {
+        File out = new File(catalogFile);
+        File baseFolder = out.getAbsoluteFile().getParentFile();
+        File tmp = new File(out.getPath() + ".tmp");
+
+        ArrayList<Table> heapTables = new ArrayList<Table>();
+        for (Integer id : snapshot.tableIds) {
+            Table t = tablesById.get(id);
+            if (t != null && t.getDbFile() instanceof HeapFile)
+                heapTables.add(t);
+        }
+
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            dos.writeInt(CATALOG_MAGIC);
+            dos.writeInt(CATALOG_FORMAT);
+            dos.writeInt(heapTables.size());
+            for (Table t : heapTables) {
+                File data = ((HeapFile) t.getDbFile()).getFile().getAbsoluteFile();
+                TupleDesc td = t.getDbFile().getTupleDesc();
+                dos.writeInt(t.getTableId());
+                writeString(dos, t.getTableName());
+                writeString(dos, t.getKeyFieldName());
+                writeString(dos, baseFolder.equals(data.getParentFile()) ? data.getName() : data.getPath());
+                dos.writeInt(td.numFields());
+                for (int i = 0; i < td.numFields(); i++) {
+                    dos.writeByte(td.getFieldType(i).ordinal());
+                    writeString(dos, td.getFieldName(i));
+                }
+
+                TableStatistics stats = t.stats;
+                dos.writeBoolean(stats != null);
+                if (stats != null) {
+                    dos.writeInt(stats.getNumPages());
+                    dos.writeLong(stats.getNumTuples());
+                    for (int i = 0; i < td.numFields(); i++) {
+                        dos.writeInt(stats.getMin(i));
+                        dos.writeInt(stats.getMax(i));
+                        dos.writeLong(stats.getDistinct(i));
+                    }
+                }
+            }
+        } finally {
+            dos.close();
+        }
+        Files.move(tmp.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        if (s == null) {
+            dos.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(UTF8);
+        dos.writeInt(b.length);
+        dos.write(b);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int len = buf.getInt();
+        if (len < 0)
+            return null;
+        byte[] b = new byte[len];
+        buf.get(b);
+        return new String(b, UTF8);
+    }
+
+    /**
+     * Read a binary catalog written by saveSchema in a single pass over a
+     * memory mapping of the file, and publish all its tables at once.
+     */
+    private void loadBinarySchema(File catalogFile) throws IOException {
+        File baseFolder = catalogFile.getAbsoluteFile().getParentFile();
+        ByteBuffer buf;
+        FileInputStream in = new FileInputStream(catalogFile);
+        try {
+            FileChannel ch = in.getChannel();
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        } finally {
+            in.close();
+        }
+
+        ArrayList<Table> loaded = new ArrayList<Table>();
+        try {
+            if (buf.getInt() != CATALOG_MAGIC)
+                throw new IllegalArgumentException("not a binary catalog: " + catalogFile);
+            int format = buf.getInt();
+            if (format != CATALOG_FORMAT)
+                throw new IllegalArgumentException("unsupported catalog format " + format + " in " + catalogFile);
+
+            Type[] types = Type.values();
+            int numTables = buf.getInt();
+            for (int n = 0; n < numTables; n++) {
+                int tableid = buf.getInt();
+                String name = readString(buf);
+                String primaryKey = readString(buf);
+                File data = new File(readString(buf));
+                if (!data.isAbsolute())
+                    data = new File(baseFolder, data.getPath());
+
+                int numFields = buf.getInt();
+                Type[] typeAr = new Type[numFields];
+                String[] namesAr = new String[numFields];
+                for (int i = 0; i < numFields; i++) {
+                    typeAr[i] = types[buf.get()];
+                    namesAr[i] = readString(buf);
+                }
+
+                Table t = new Table(new HeapFile(data, new TupleDesc(typeAr, namesAr), tableid), name, primaryKey);
+                if (buf.get() != 0) {
+                    int numPages = buf.getInt();
+                    long numTuples = buf.getLong();
+                    int[] min = new int[numFields];
+                    int[] max = new int[numFields];
+                    long[] distinct = new long[numFields];
+                    for (int i = 0; i < numFields; i++) {
+                        min[i] = buf.getInt();
+                        max[i] = buf.getInt();
+                        distinct[i] = buf.getLong();
+                    }
+                    t.stats = new TableStatistics(numPages, numTuples, min, max, distinct);
+                }
+                loaded.add(t);
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("truncated catalog " + catalogFile, e);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("bad field type in catalog " + catalogFile, e);
+        }
+
+        synchronized (this) {
+            ArrayList<Integer> ids = new ArrayList<Integer>(snapshot.tableIds);
+            for (Table t : loaded)
+                putTable(t, ids);
+            snapshot = new Snapshot(snapshot.version + 1, ids);
         }
     }
 }
@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CLOCK (second chance) eviction.  Every cached page carries a reference
+ * bit that is set when the page is accessed.  The clock hand sweeps the
+ * pages in the order they were added, clearing set bits, and stops at the
+ * first page whose bit is already clear.
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+	
+	/**
+	 * Pages in clock order starting at the hand, mapped to their reference bit
+	 */
+	private LinkedHashMap<PageId, Boolean> ring;
+	
+	public ClockEvictionPolicy() {
+		this.ring = new LinkedHashMap<PageId, Boolean>();
+	}
+
+	public void pageAdded(PageId pid) {
+		ring.put(pid, Boolean.FALSE);
+	}
+
+	public void pageAccessed(PageId pid) {
+		if(ring.containsKey(pid)) ring.put(pid, Boolean.TRUE);
+	}
+
+	public void pageRemoved(PageId pid) {
+		ring.remove(pid);
+	}
+
+	public PageId victim() {
+		// one full sweep clears every bit, so the hand stops within size + 1 steps
+		int steps = ring.size() + 1;
+		for(int i = 0; i < steps; i++) {
+			Iterator<Map.Entry<PageId, Boolean>> iter = ring.entrySet().iterator();
+			if(!iter.hasNext()) return null;
+			Map.Entry<PageId, Boolean> hand = iter.next();
+			if(!hand.getValue()) return hand.getKey();
+			// second chance: clear the bit and move the page behind the hand
+			PageId pid = hand.getKey();
+			iter.remove();
+			ring.put(pid, Boolean.FALSE);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * EvictionPolicy decides which cached page the BufferPool gives up when it
+ * needs a free frame.  The BufferPool reports every page that enters, is
+ * hit in, or leaves the pool, and asks for a victim when it is full.
+ * <p>
+ * Implementations need not be thread-safe: the BufferPool only calls a
+ * policy while holding the lock of the shard the policy belongs to.
+ *
+ * @see BufferPool
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a page is read into the pool.
+     *
+     * @param pid the id of the page that was added
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called when a page that is already cached is requested again.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the pool, either because it was evicted or
+     * because it was discarded.
+     *
+     * @param pid the id of the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Choose the page that should be evicted next.  The page stays cached
+     * until the BufferPool calls {@link #pageRemoved}.
+     *
+     * @return the id of the page to evict, or null if no page is cached
+     */
+    public PageId victim();
+}
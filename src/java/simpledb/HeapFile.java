@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,14 +12,60 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile can optionally be memory-mapped.  Pages are then read by
+ * handing HeapPage a slice of the mapping instead of reading the page into
+ * a fresh array, which saves a system call and a copy per page when the
+ * file is in the OS page cache.  Writes still go through the file channel.
+ * The default is taken from the system property simpledb.HeapFile.mmap.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 	
+	private static final long serialVersionUID = 1L;
+	
+	/** System property that turns memory-mapped reads on by default */
+	public static final String MMAP_PROPERTY = "simpledb.HeapFile.mmap";
+	
+	/** Largest region that is mapped; pages past it are read through the channel */
+	static final long MAX_MAPPED_BYTES = (Integer.MAX_VALUE / BufferPool.PAGE_SIZE) * (long)BufferPool.PAGE_SIZE;
+	
+	/** Upper bound of the read-ahead window of a scan, in pages */
+	static final int MAX_READ_AHEAD = 32;
+	
 	private File f;
 	private TupleDesc td;
+	
+	/**
+	 * Table id, fixed when the HeapFile is created
+	 */
+	private final int tableid;
+	
+	/**
+	 * Channel shared by all readers and writers of this file.  Opened on
+	 * first use; positional reads and writes on a FileChannel are safe to
+	 * issue from many threads at once.
+	 */
+	private transient volatile FileChannel channel;
+	
+	/**
+	 * Page the last insert found room on, where the next insert starts
+	 * looking
+	 */
+	private transient volatile int insertHint;
+	
+	/**
+	 * Whether pages are read from a memory mapping of the file
+	 */
+	private boolean memoryMapped;
+	
+	/**
+	 * Read-only mapping of the start of the file, or null if not mapped yet.
+	 * Remapped when the file grows past it.
+	 */
+	private transient volatile MappedByteBuffer mapping;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -26,9 +75,63 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+    	this(f, td, Boolean.getBoolean(MMAP_PROPERTY));
+    }
+    
+    /**
+     * Constructs a heap file backed by the specified file.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            true to read pages from a memory mapping of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // some code goes here
+    	this(f, td, f.getAbsoluteFile().hashCode(), memoryMapped);
+    }
+    
+    /**
+     * Constructs a heap file backed by the specified file, with a table id
+     * chosen by the caller rather than derived from the file's path.  The
+     * Catalog uses this so that ids stay the same when the data directory
+     * moves.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param tableid
+     *            the id returned by getId()
+     */
+    public HeapFile(File f, TupleDesc td, int tableid) {
+    	this(f, td, tableid, Boolean.getBoolean(MMAP_PROPERTY));
+    }
+    
+    /**
+     * Constructs a heap file backed by the specified file, with a table id
+     * chosen by the caller.
+     * 
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param tableid
+     *            the id returned by getId()
+     * @param memoryMapped
+     *            true to read pages from a memory mapping of the file
+     */
+    public HeapFile(File f, TupleDesc td, int tableid, boolean memoryMapped) {
     	this.f = f;
     	this.td = td;
+    	this.tableid = tableid;
+    	this.memoryMapped = memoryMapped;
+    }
+    
+    /**
+     * @return true if pages are read from a memory mapping of the file
+     */
+    public boolean isMemoryMapped() {
+    	return memoryMapped;
     }
 
     /**
@@ -48,13 +151,16 @@ public class HeapFile implements DbFile {
      * HeapFile has a "unique id," and that you always return the same value for
      * a particular HeapFile. We suggest hashing the absolute file name of the
      * file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
+     * <p>
+     * The id is the one given to the constructor, or else the hash of the
+     * absolute file name, computed once when the HeapFile is created.
      * 
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
         // some code goes here
         // throw new UnsupportedOperationException("implement this");
-    	return f.getAbsoluteFile().hashCode();
+    	return tableid;
     }
 
     /**
@@ -68,36 +174,101 @@ public class HeapFile implements DbFile {
     	return td;
     }
 
+    /**
+     * @return the channel of the backing file, opening it if necessary
+     */
+    private FileChannel getChannel() throws IOException {
+    	FileChannel ch = channel;
+    	if(ch == null) {
+    		synchronized(this) {
+    			ch = channel;
+    			if(ch == null) {
+    				ch = new RandomAccessFile(f, "rw").getChannel();
+    				channel = ch;
+    			}
+    		}
+    	}
+    	return ch;
+    }
+    
+    /**
+     * Closes the channel of the backing file.  The file is reopened on the
+     * next page access.
+     */
+    public synchronized void close() {
+    	if(channel == null) return;
+    	try {
+    		channel.close();
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    	}
+    	channel = null;
+    	mapping = null;
+    }
+    
+    /**
+     * @return a mapping that covers the byte range [0, end) of the file,
+     *         or null if end is beyond what is mapped
+     */
+    private MappedByteBuffer getMapping(long end) throws IOException {
+    	if(end > MAX_MAPPED_BYTES) return null;
+    	MappedByteBuffer m = mapping;
+    	if(m != null && m.capacity() >= end) return m;
+    	synchronized(this) {
+    		m = mapping;
+    		if(m == null || m.capacity() < end) {
+    			FileChannel ch = getChannel();
+    			m = ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(ch.size(), MAX_MAPPED_BYTES));
+    			mapping = m;
+    		}
+    	}
+    	return m.capacity() >= end ? m : null;
+    }
+
     // see DbFile.java for javadocs
-    // @@exception should be optimize@@
     public Page readPage(PageId pid) {
         // some code goes here
         // return null;
-    	// return Database.getBufferPool().
-    	// return null;
-    	int pageNo = pid.pageNumber();
+    	int pageSize = BufferPool.PAGE_SIZE;
+    	long offset = (long)pid.pageNumber() * pageSize;
     	try {
-			RandomAccessFile dis = new RandomAccessFile(f, "r");
-			int pageSize = BufferPool.PAGE_SIZE;
-	    	int offset = pageNo * pageSize;
-	    	byte[] pageContent = new byte[pageSize];
-	    	dis.seek(offset);
-			dis.read(pageContent, 0, pageSize);
-			dis.close();
-			return new HeapPage((HeapPageId)pid, pageContent);
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			return null;
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
-		}
+    		FileChannel ch = getChannel();
+    		if(pid.pageNumber() < 0 || offset + pageSize > ch.size()) {
+    			throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in " + f);
+    		}
+    		if(memoryMapped) {
+    			MappedByteBuffer m = getMapping(offset + pageSize);
+    			if(m != null) {
+    				ByteBuffer slice = m.duplicate();
+    				slice.position((int)offset);
+    				slice.limit((int)offset + pageSize);
+    				return new HeapPage((HeapPageId)pid, slice.slice());
+    			}
+    		}
+    		byte[] pageContent = new byte[pageSize];
+    		ByteBuffer buf = ByteBuffer.wrap(pageContent);
+    		while(buf.hasRemaining()) {
+    			if(ch.read(buf, offset + buf.position()) < 0) break;
+    		}
+    		return new HeapPage((HeapPageId)pid, pageContent);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		return null;
+    	}
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for proj1
+    	int pageSize = BufferPool.PAGE_SIZE;
+    	long offset = (long)page.getId().pageNumber() * pageSize;
+    	FileChannel ch = getChannel();
+    	ByteBuffer buf = page instanceof HeapPage ? ((HeapPage)page).getPageBuffer()
+    			: ByteBuffer.wrap(page.getPageData(), 0, pageSize);
+    	while(buf.hasRemaining()) {
+    		ch.write(buf, offset + buf.position());
+    	}
     }
 
     /**
@@ -106,61 +277,169 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // some code goes here
         // return 0;
-    	BufferPool bp = Database.getBufferPool();
-    	int pageSize = bp.PAGE_SIZE;
-    	long fileSize = f.length();
-    	return (int)((fileSize) / pageSize);
+    	int pageSize = BufferPool.PAGE_SIZE;
+    	// don't create the backing file just to find out it is empty
+    	if(channel == null && !f.exists()) return 0;
+    	try {
+    		return (int)(getChannel().size() / pageSize);
+    	} catch (IOException e) {
+    		e.printStackTrace();
+    		return 0;
+    	}
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for proj1
+    	if(!td.equals(t.getTupleDesc()))
+    		throw new DbException("tupledesc is mismatch");
+    	BufferPool pool = Database.getBufferPool();
+
+    	// look for room from the page the last insert went to, then wrap
+    	// around to the pages before it, which deletes may have freed
+    	int n = numPages();
+    	int start = Math.min(insertHint, n);
+    	for(int k = 0; k < n; k++) {
+    		int pgNo = (start + k) % n;
+    		HeapPage page = (HeapPage)pool.getPage(tid, new HeapPageId(tableid, pgNo), Permissions.READ_WRITE);
+    		if(page.getNumEmptySlots() > 0) {
+    			page.insertTuple(t);
+    			insertHint = pgNo;
+    			return pageList(page);
+    		}
+    	}
+
+    	int pgNo = appendEmptyPage();
+    	HeapPage page = (HeapPage)pool.getPage(tid, new HeapPageId(tableid, pgNo), Permissions.READ_WRITE);
+    	page.insertTuple(t);
+    	insertHint = pgNo;
+    	return pageList(page);
+    }
+
+    private static ArrayList<Page> pageList(Page page) {
+    	ArrayList<Page> pages = new ArrayList<Page>();
+    	pages.add(page);
+    	return pages;
+    }
+
+    /**
+     * Write an empty page at the end of the file.
+     *
+     * @return its page number
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+    	int pageSize = BufferPool.PAGE_SIZE;
+    	FileChannel ch = getChannel();
+    	int pgNo = (int)(ch.size() / pageSize);
+    	ByteBuffer buf = ByteBuffer.wrap(HeapPage.createEmptyPageData());
+    	long offset = (long)pgNo * pageSize;
+    	while(buf.hasRemaining()) {
+    		ch.write(buf, offset + buf.position());
+    	}
+    	return pgNo;
     }
 
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for proj1
+    	RecordId rid = t.getRecordId();
+    	if(rid == null || rid.getPageId().getTableId() != tableid)
+    		throw new DbException("tuple is not a member of this file");
+    	HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+    	page.deleteTuple(t);
+    	return page;
     }
     
     
+    /**
+     * Iterates over the tuples of this file page by page.  While a page is
+     * being consumed, the following pages are prefetched into the
+     * BufferPool.  The read-ahead window starts at one page and doubles
+     * every time the scan moves on to the next page in order, up to
+     * MAX_READ_AHEAD pages or a quarter of the BufferPool, whichever is
+     * smaller, so read-ahead never pushes out the pages it is fetching.
+     */
     class HeapFileIterator implements DbFileIterator {
 		private static final long serialVersionUID = 1L;
 		private Iterator<Tuple> tupleIterator;
     	private int pgNo;
     	private TransactionId tid;
+    	private Predicate predicate;
+    	
+    	/**
+    	 * Current read-ahead window, in pages
+    	 */
+    	private int window;
+    	
+    	/**
+    	 * Highest page number handed to the prefetcher so far
+    	 */
+    	private int prefetched;
+    	
     	public HeapFileIterator(TransactionId tid) {
+    		this(tid, null);
+    	}
+    	
+    	/**
+    	 * @see HeapFile#iterator(TransactionId, Predicate)
+    	 */
+    	public HeapFileIterator(TransactionId tid, Predicate predicate) {
     		this.tid = tid;
+    		this.predicate = predicate;
     		tupleIterator = null;
     		pgNo = 0;
     	}
-    	public void open() throws TransactionAbortedException, DbException {
-    		HeapPageId hpi = new HeapPageId(getId(), pgNo);
+    	
+    	/**
+    	 * Move to page no, widening the read-ahead window if the scan is
+    	 * sequential, and prefetch the pages after it.
+    	 */
+    	private void loadPage(int no, int numPages) throws TransactionAbortedException, DbException {
     		BufferPool bp = Database.getBufferPool();
-    		HeapPage hp = (HeapPage)bp.getPage(tid, hpi, null);
-    		tupleIterator = hp.iterator();
+    		int maxWindow = Math.min(MAX_READ_AHEAD, bp.getNumPages() / 4);
+    		if(no == pgNo + 1) {
+    			window = Math.min(Math.max(1, window * 2), maxWindow);
+    		} else {
+    			window = Math.min(1, maxWindow);
+    			prefetched = no;
+    		}
+    		pgNo = no;
+    		int last = Math.min(pgNo + window, numPages - 1);
+    		for(int p = Math.max(prefetched, pgNo) + 1; p <= last; p++) {
+    			bp.prefetchPage(new HeapPageId(getId(), p));
+    		}
+    		prefetched = Math.max(prefetched, last);
+    		HeapPage hp = (HeapPage)bp.getPage(tid, new HeapPageId(getId(), pgNo), null);
+    		tupleIterator = hp.iterator(predicate);
+    	}
+    	
+    	public void open() throws TransactionAbortedException, DbException {
+    		pgNo = -1;
+    		window = 0;
+    		prefetched = 0;
+    		int numPages = numPages();
+    		if(numPages == 0) {
+    			tupleIterator = Collections.<Tuple>emptyList().iterator();
+    			return;
+    		}
+    		loadPage(0, numPages);
     	}
     	public boolean hasNext() throws TransactionAbortedException, DbException {
     		if(tupleIterator == null) return false;
     		if(tupleIterator.hasNext()) return true;
     		int numPages = numPages();
-    		while(true) {
-    			pgNo++;
-    			if(pgNo >= numPages) return false;
-    			HeapPageId hpi = new HeapPageId(getId(), pgNo);
-    			BufferPool bp = Database.getBufferPool();
-    			HeapPage hp = (HeapPage)bp.getPage(tid, hpi, null);
-    			tupleIterator = hp.iterator();
+    		while(pgNo + 1 < numPages) {
+    			loadPage(pgNo + 1, numPages);
     			if(tupleIterator.hasNext()) return true;
     		}
+    		return false;
     	}
-    	public Tuple next() {
-    		if(tupleIterator == null) throw new NoSuchElementException();
+    	public Tuple next() throws TransactionAbortedException, DbException {
+    		if(!hasNext()) throw new NoSuchElementException();
     		return tupleIterator.next();
     	}
     	public void rewind() throws TransactionAbortedException, DbException {
@@ -180,6 +459,19 @@ public class HeapFile implements DbFile {
     	return new HeapFileIterator(tid);
     	
     }
+    
+    /**
+     * Returns an iterator over the tuples of this file that satisfy a
+     * predicate.  Pages evaluate the predicate on the raw bytes of the
+     * field it refers to, so tuples that fail it are never decoded.
+     * 
+     * @param p
+     *            the predicate tuples must satisfy, or null for all tuples
+     * @see HeapPage#iterator(Predicate)
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate p) {
+    	return new HeapFileIterator(tid, p);
+    }
 
 }
 
@@ -2,10 +2,21 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Tuples are decoded lazily: the page keeps its raw bytes and turns a slot
+ * into a Tuple only when the slot is first asked for.  Scans that reject
+ * most tuples on a single field can use {@link #iterator(Predicate)} to
+ * avoid decoding the rest.
+ * <p>
+ * The raw bytes are the authoritative copy of the page: inserts and deletes
+ * update them in place, so serializing the page or taking its before image
+ * is a plain buffer copy.  A page shares the buffer it was read from until
+ * it is first modified, and only then copies it.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,11 +26,43 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
+    int headerSize;
+    /**
+     * The header bitmap packed into 64-bit words: slot i is used iff bit
+     * (i % 64) of slotBits[i / 64] is set.  Kept in step with the header
+     * bytes in data.
+     */
+    long slotBits[];
+    /** Decoded tuples; null for empty slots and slots not decoded yet */
     Tuple tuples[];
     int numSlots;
+    
+    /**
+     * Raw bytes of this page, starting at index 0.  Until the page owns it,
+     * this may be shared with the caller or be a read-only slice of a
+     * memory-mapped file, and must not be written.
+     */
+    ByteBuffer data;
+    
+    /**
+     * Whether data is a private, writable copy
+     */
+    boolean owned;
+    
+    /**
+     * Byte offset of each field within a tuple
+     */
+    int fieldOffsets[];
 
-    byte[] oldData;
+    /**
+     * Bytes of the before image; never written
+     */
+    ByteBuffer oldData;
+    
+    /**
+     * Transaction that last dirtied this page, or null if the page is clean
+     */
+    private TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -38,27 +81,75 @@ public class HeapPage implements Page {
      * @see BufferPool#PAGE_SIZE
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+    
+    /**
+     * Create a HeapPage from a buffer holding the bytes of a page, such as a
+     * slice of a memory-mapped file, without copying it into an array first.
+     * The page is read from data's position on; data itself is not modified.
+     * 
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, Database.getCatalog().getTupleDesc(id.getTableId()), data);
+    }
+    
+    /**
+     * Create a HeapPage of tuples with the given schema, for pages of files
+     * that are not in the Catalog, such as an operator's temporary files.
+     * 
+     * @see #HeapPage(HeapPageId, ByteBuffer)
+     */
+    public HeapPage(HeapPageId id, TupleDesc td, ByteBuffer data) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
+        this.td = td;
+        this.numSlots = getNumTuples(td);
+        this.data = data.slice();
+        this.owned = false;
+
+        // read the header slots of this page
+        headerSize = getHeaderSize();
+        slotBits = new long[(numSlots + 63) >>> 6];
+        for (int b=0; b<headerSize; b++)
+            slotBits[b >>> 3] |= (this.data.get(b) & 0xffL) << ((b & 7) << 3);
+
+        // tuples are decoded on demand, see tupleAt
+        tuples = new Tuple[numSlots];
+        fieldOffsets = new int[td.numFields()];
+        for (int j=1; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j-1] + td.getFieldType(j-1).getLen();
+
+        // nothing has been modified yet, so the raw bytes are the before image
+        oldData = this.data;
+    }
+    
+    /**
+     * Make data a private, writable copy before the first modification, so
+     * that the buffer this page was read from and the before image are
+     * left untouched.
+     */
+    private void ensureWritable() {
+        if (owned)
+            return;
+        // a before image in a memory mapping would show the new bytes once
+        // this page is flushed, so it needs a copy of its own
+        if (oldData == data && !data.hasArray())
+            oldData = copyOf(data);
+        data = copyOf(data);
+        owned = true;
+    }
 
-        setBeforeImage();
+    /**
+     * @return a private heap copy of the page bytes in buf
+     */
+    private static ByteBuffer copyOf(ByteBuffer buf) {
+        ByteBuffer src = buf.duplicate();
+        src.clear().limit(BufferPool.PAGE_SIZE);
+        ByteBuffer copy = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+        copy.put(src);
+        copy.clear();
+        return copy;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -67,9 +158,16 @@ public class HeapPage implements Page {
     private int getNumTuples() {        
         // some code goes here
         // return 0;
+    	return getNumTuples(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of tuples with schema td
+     */
+    static int getNumTuples(TupleDesc td) {
     	int pageSize = BufferPool.PAGE_SIZE;
     	int tupleSize = td.getSize();
-    	return (int)(Math.floorDiv(pageSize * 8, tupleSize * 8 + 1));
+    	return (pageSize * 8) / (tupleSize * 8 + 1);
     }
 
     /**
@@ -79,7 +177,7 @@ public class HeapPage implements Page {
     private int getHeaderSize() {
         // some code goes here
         // return 0;
-    	return (int)(Math.ceil(numSlots / 8.0));           
+    	return (numSlots + 7) >>> 3;
     }
     
     /** Return a view of this page before it was modified
@@ -96,7 +194,9 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        // share the current bytes; the next modification copies them first
+        oldData = data;
+        owned = false;
     }
 
     /**
@@ -109,36 +209,56 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the byte offset of slot i within the page
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private int slotOffset(int i) {
+        return headerSize + i * td.getSize();
+    }
+
+    /**
+     * Decode field j of slot i straight from the raw page bytes.
+     */
+    private Field readField(int i, int j) throws NoSuchElementException {
+        ByteBuffer buf = data.duplicate();
+        buf.position(slotOffset(i) + fieldOffsets[j]);
+        try {
+            return td.getFieldType(j).parse(buf);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        // read fields in the tuple
+    /**
+     * Decode slot i into a new Tuple.
+     */
+    private Tuple readTuple(int i) throws NoSuchElementException {
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+        t.setRecordId(new RecordId(pid, i));
+        ByteBuffer buf = data.duplicate();
+        buf.position(slotOffset(i));
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
+            for (int j=0; j<td.numFields(); j++)
+                t.readField(j, buf);
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+        return t;
+    }
 
+    /**
+     * @return the tuple in slot i, decoding it if this is the first access,
+     *         or null if the slot is empty
+     */
+    Tuple tupleAt(int i) throws NoSuchElementException {
+        if (!isSlotUsed(i))
+            return null;
+        Tuple t = tuples[i];
+        if (t == null) {
+            t = readTuple(i);
+            tuples[i] = t;
+        }
         return t;
     }
 
@@ -154,64 +274,21 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        byte[] out = new byte[BufferPool.PAGE_SIZE];
+        getPageBuffer().get(out);
+        return out;
+    }
 
-        return baos.toByteArray();
+    /**
+     * @return a read-only view of the bytes of this page, positioned at 0
+     *         with PAGE_SIZE bytes remaining.  The view reflects later
+     *         modifications of the page, so write it out before modifying
+     *         the page again.
+     */
+    public ByteBuffer getPageBuffer() {
+        ByteBuffer buf = data.asReadOnlyBuffer();
+        buf.clear().limit(BufferPool.PAGE_SIZE);
+        return buf;
     }
 
     /**
@@ -238,6 +315,20 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+    	RecordId rid = t.getRecordId();
+    	if(rid == null || !pid.equals(rid.getPageId()))
+    		throw new DbException("tuple is not on this page");
+    	int i = rid.tupleno();
+    	if(i < 0 || i >= numSlots || !isSlotUsed(i))
+    		throw new DbException("tuple slot is already empty");
+
+    	ensureWritable();
+    	markSlotUsed(i, false);
+    	int off = slotOffset(i);
+    	for(int b = 0; b < td.getSize(); b++)
+    		data.put(off + b, (byte)0);
+    	tuples[i] = null;
+    	t.setRecordId(null);
     }
 
     /**
@@ -250,6 +341,20 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+    	if(!td.equals(t.getTupleDesc()))
+    		throw new DbException("tupledesc is mismatch");
+    	int i = nextEmptySlot();
+    	if(i >= numSlots)
+    		throw new DbException("page is full");
+
+    	ensureWritable();
+    	ByteBuffer buf = data.duplicate();
+    	buf.position(slotOffset(i));
+    	for(int j = 0; j < td.numFields(); j++)
+    		t.getField(j).serialize(buf);
+    	markSlotUsed(i, true);
+    	t.setRecordId(new RecordId(pid, i));
+    	tuples[i] = t;
     }
 
     /**
@@ -259,6 +364,7 @@ public class HeapPage implements Page {
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
 	// not necessary for lab1
+    	this.dirtier = dirty ? tid : null;
     }
 
     /**
@@ -267,7 +373,8 @@ public class HeapPage implements Page {
     public TransactionId isDirty() {
         // some code goes here
 	// Not necessary for lab1
-        return null;      
+        // return null;      
+    	return dirtier;
     }
 
     /**
@@ -276,13 +383,11 @@ public class HeapPage implements Page {
     public int getNumEmptySlots() {
         // some code goes here
         // return 0;
-    	int emptyNum = 0;
-    	for(int i = 0; i < numSlots; i++) {
-    		if(!isSlotUsed(i)) {
-    			emptyNum++;
-    		}
+    	int used = 0;
+    	for(int w = 0; w < slotBits.length; w++) {
+    		used += Long.bitCount(slotBits[w]);
     	}
-    	return emptyNum;
+    	return numSlots - used;
     }
 
     /**
@@ -291,10 +396,7 @@ public class HeapPage implements Page {
     public boolean isSlotUsed(int i) {
         // some code goes here
         // return false;
-    	int index = (int)(i / 8.0);
-    	// System.out.println("index " + index);
-    	System.out.println(header[index] & (1 << (i % 8)));
-    	return (header[index] & (1 << (i % 8))) != 0;
+    	return (slotBits[i >>> 6] & (1L << i)) != 0;
     }
 
     /**
@@ -303,6 +405,45 @@ public class HeapPage implements Page {
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
+    	ensureWritable();
+    	byte b = data.get(i >>> 3);
+    	if(value) {
+    		slotBits[i >>> 6] |= 1L << i;
+    		b |= 1 << (i & 7);
+    	} else {
+    		slotBits[i >>> 6] &= ~(1L << i);
+    		b &= ~(1 << (i & 7));
+    	}
+    	data.put(i >>> 3, b);
+    }
+
+    /**
+     * @return the first empty slot, or numSlots if the page is full
+     */
+    private int nextEmptySlot() {
+    	for(int w = 0; w < slotBits.length; w++) {
+    		long free = ~slotBits[w];
+    		if(free != 0) {
+    			int i = (w << 6) + Long.numberOfTrailingZeros(free);
+    			return Math.min(i, numSlots);
+    		}
+    	}
+    	return numSlots;
+    }
+
+    /**
+     * @return the first used slot at or after i, or numSlots if there is
+     *         none.  Whole words of empty slots are skipped at once.
+     */
+    private int nextUsedSlot(int i) {
+    	if(i >= numSlots) return numSlots;
+    	int w = i >>> 6;
+    	long word = slotBits[w] & (-1L << i);
+    	while(word == 0) {
+    		if(++w == slotBits.length) return numSlots;
+    		word = slotBits[w];
+    	}
+    	return (w << 6) + Long.numberOfTrailingZeros(word);
     }
 
     /**
@@ -312,14 +453,65 @@ public class HeapPage implements Page {
     public Iterator<Tuple> iterator() {
         // some code goes here
         // return null;
-    	List<Tuple> tupleArray = new ArrayList<Tuple>();
-    	for(int i = 0; i < numSlots; i++) {
-    		if(isSlotUsed(i)) {
-    			tupleArray.add(tuples[i]);
+    	return new SlotIterator(null);
+    }
+
+    /**
+     * Iterate over the tuples of this page that satisfy a predicate.  The
+     * predicate is evaluated on the single field it refers to, straight
+     * from the page bytes, so rejected tuples are never decoded.
+     *
+     * @param p
+     *            the predicate tuples must satisfy, or null for all tuples
+     * @return an iterator over the matching tuples (calling remove on this
+     *         iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator(Predicate p) {
+    	return new SlotIterator(p);
+    }
+
+    /**
+     * Walks the used slots of this page, decoding each one only when it is
+     * returned.
+     */
+    private class SlotIterator implements Iterator<Tuple> {
+    	private Predicate predicate;
+    	/** next slot to return, or numSlots when done */
+    	private int slot;
+
+    	SlotIterator(Predicate predicate) {
+    		this.predicate = predicate;
+    		this.slot = advance(0);
+    	}
+
+    	/**
+    	 * @return the first used slot at or after i that satisfies the
+    	 *         predicate, or numSlots if there is none
+    	 */
+    	private int advance(int i) {
+    		for(i = nextUsedSlot(i); i < numSlots; i = nextUsedSlot(i + 1)) {
+    			if(predicate == null) return i;
+    			Field f = tuples[i] != null ? tuples[i].getField(predicate.getField())
+    					: readField(i, predicate.getField());
+    			if(f.compare(predicate.getOp(), predicate.getOperand())) return i;
     		}
+    		return numSlots;
+    	}
+
+    	public boolean hasNext() {
+    		return slot < numSlots;
+    	}
+
+    	public Tuple next() {
+    		if(slot >= numSlots) throw new NoSuchElementException();
+    		Tuple t = tupleAt(slot);
+    		slot = advance(slot + 1);
+    		return t;
+    	}
+
+    	public void remove() {
+    		throw new UnsupportedOperationException();
     	}
-    	return tupleArray.iterator();
     }
 
 }
-
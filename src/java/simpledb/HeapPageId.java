@@ -45,7 +45,7 @@ public class HeapPageId implements PageId {
     public int hashCode() {
         // some code goes here
         // throw new UnsupportedOperationException("implement this");
-    	return tableId << 16 + pgNo; 
+    	return (tableId << 16) + pgNo;
     }
 
     /**
@@ -0,0 +1,36 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Evicts the least recently used page.
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+	
+	/**
+	 * Cached pages, least recently used first
+	 */
+	private LinkedHashMap<PageId, Boolean> pages;
+	
+	public LruEvictionPolicy() {
+		this.pages = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+	}
+
+	public void pageAdded(PageId pid) {
+		pages.put(pid, Boolean.TRUE);
+	}
+
+	public void pageAccessed(PageId pid) {
+		pages.get(pid);
+	}
+
+	public void pageRemoved(PageId pid) {
+		pages.remove(pid);
+	}
+
+	public PageId victim() {
+		Iterator<PageId> iter = pages.keySet().iterator();
+		return iter.hasNext() ? iter.next() : null;
+	}
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * LRU-K eviction (O'Neil, O'Neil and Weikum).  The victim is the cached
+ * page whose K-th most recent access is furthest in the past.  Pages with
+ * fewer than K recorded accesses are evicted first, least recently used
+ * first, so a page that a scan touches once cannot displace a page that
+ * is used over and over.
+ * <p>
+ * Access history is kept for some pages after they are evicted, so a page
+ * that is re-read soon after eviction keeps its earlier accesses.
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+	
+	/** K used when none is given */
+	public static final int DEFAULT_K = 2;
+	
+	private int k;
+	
+	/**
+	 * Logical clock, advanced on every access
+	 */
+	private long clock;
+	
+	/**
+	 * Access times of each known page, most recent first (0 = no access).
+	 * Ordered by last access, so the stalest history is trimmed first.
+	 */
+	private LinkedHashMap<PageId, long[]> history;
+	
+	/**
+	 * Pages currently cached
+	 */
+	private HashSet<PageId> resident;
+	
+	/**
+	 * Number of evicted pages whose history is retained
+	 */
+	private int retained;
+	
+	/**
+	 * @param k
+	 *            the number of accesses to remember per page
+	 * @param capacity
+	 *            number of pages this policy manages; history is retained
+	 *            for up to as many evicted pages
+	 */
+	public LruKEvictionPolicy(int k, int capacity) {
+		if(k < 1) throw new IllegalArgumentException("K must be at least 1");
+		this.k = k;
+		this.clock = 0;
+		this.history = new LinkedHashMap<PageId, long[]>();
+		this.resident = new HashSet<PageId>();
+		this.retained = Math.max(1, capacity);
+	}
+	
+	public LruKEvictionPolicy(int capacity) {
+		this(DEFAULT_K, capacity);
+	}
+	
+	private void recordAccess(PageId pid) {
+		long[] times = history.remove(pid);
+		if(times == null) times = new long[k];
+		history.put(pid, times);
+		System.arraycopy(times, 0, times, 1, k - 1);
+		times[0] = ++clock;
+	}
+
+	public void pageAdded(PageId pid) {
+		resident.add(pid);
+		recordAccess(pid);
+	}
+
+	public void pageAccessed(PageId pid) {
+		if(resident.contains(pid)) recordAccess(pid);
+	}
+
+	public void pageRemoved(PageId pid) {
+		resident.remove(pid);
+		// drop the stalest history of pages that are no longer cached
+		int excess = history.size() - resident.size() - retained;
+		Iterator<PageId> iter = history.keySet().iterator();
+		while(excess > 0 && iter.hasNext()) {
+			if(!resident.contains(iter.next())) {
+				iter.remove();
+				excess--;
+			}
+		}
+	}
+
+	public PageId victim() {
+		PageId victim = null;
+		long victimKth = Long.MAX_VALUE;
+		long victimLast = Long.MAX_VALUE;
+		for(PageId pid: resident) {
+			long[] times = history.get(pid);
+			long kth = times[k - 1];
+			long last = times[0];
+			if(kth < victimKth || (kth == victimKth && last < victimLast)) {
+				victim = pid;
+				victimKth = kth;
+				victimLast = last;
+			}
+		}
+		return victim;
+	}
+}
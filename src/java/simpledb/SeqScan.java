@@ -15,6 +15,11 @@ public class SeqScan implements DbIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator iterator;
+    
+    /**
+     * Predicate pushed down into the scan, or null
+     */
+    private Predicate predicate;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -77,6 +82,27 @@ public class SeqScan implements DbIterator {
     	this.tableAlias = tableAlias;
     }
 
+    /**
+     * Push a predicate down into this scan: only tuples satisfying it are
+     * returned.  Heap files check the predicate before decoding a tuple, so
+     * this is much cheaper than filtering the scan's output.  Takes effect
+     * on the next open().
+     * 
+     * @param p
+     *            the predicate, over the fields of this scan's TupleDesc,
+     *            or null to return every tuple
+     */
+    public void setPredicate(Predicate p) {
+    	this.predicate = p;
+    }
+    
+    /**
+     * @return the predicate pushed down into this scan, or null
+     */
+    public Predicate getPredicate() {
+    	return predicate;
+    }
+
     public SeqScan(TransactionId tid, int tableid) {
         this(tid, tableid, Database.getCatalog().getTableName(tableid));
     }
@@ -86,7 +112,11 @@ public class SeqScan implements DbIterator {
     	if(iterator != null) throw new DbException("SeqScan iterator is not null");
     	Catalog ctag = Database.getCatalog();
     	DbFile db = ctag.getDbFile(tableid);
-    	iterator = db.iterator(tid);
+    	if(predicate != null && db instanceof HeapFile) {
+    		iterator = ((HeapFile)db).iterator(tid, predicate);
+    	} else {
+    		iterator = db.iterator(tid);
+    	}
     	iterator.open();
     }
 
@@ -68,6 +68,16 @@ public class SimpleDb {
                it.close();
             }
         }
+        else if (args[0].equals("catalog")) {
+            // write a text schema out as a binary catalog, which the parser
+            // keeps the table statistics in
+            if (args.length != 3) {
+                System.err.println("Usage: catalog schemaFile catalogFile");
+                return;
+            }
+            Database.getCatalog().loadSchema(args[1]);
+            Database.getCatalog().saveSchema(args[2]);
+        }
         else if (args[0].equals("parser")) {
             // Strip the first argument and call the parser
             String[] newargs = new String[args.length-1];
@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of tuples that an operator writes out when its working
+ * set does not fit in memory, and then reads back sequentially.
+ * <p>
+ * Pages are written in the HeapFile page format, the same as
+ * {@link HeapFileEncoder}, and read back through {@link HeapPage}.  They do
+ * not go through the BufferPool: a spill file is private to one operator
+ * and is read once or a few times front to back, so caching its pages would
+ * only push shared pages out of the pool.  Only the page being filled is
+ * held in memory.
+ * <p>
+ * The file is removed by {@link #delete}, or when the JVM exits.
+ */
+public class SpillFile {
+
+	/** Table id of the pages of spill files; they are not in the Catalog */
+	private static final int SPILL_TABLE_ID = -1;
+
+	private final TupleDesc td;
+	private final File file;
+	private final int numSlots;
+	private final int headerSize;
+
+	/** Open while tuples are being added; null once writing has finished */
+	private FileOutputStream out;
+	/** Page being filled */
+	private ByteBuffer page;
+	private int slot;
+
+	private int numPages;
+	private long numTuples;
+
+	/**
+	 * Create an empty spill file for tuples with schema td.
+	 */
+	public SpillFile(TupleDesc td) throws IOException {
+		this.td = td;
+		this.numSlots = HeapPage.getNumTuples(td);
+		this.headerSize = (numSlots + 7) >>> 3;
+		this.file = File.createTempFile("simpledb-spill", ".dat");
+		this.file.deleteOnExit();
+		this.out = new FileOutputStream(file);
+		this.page = ByteBuffer.wrap(HeapPage.createEmptyPageData());
+	}
+
+	/**
+	 * Append a tuple.  Only its field values are written.
+	 *
+	 * @throws IllegalStateException if the file has already been read
+	 */
+	public void add(Tuple t) throws IOException {
+		if(out == null)
+			throw new IllegalStateException("spill file is no longer being written");
+		if(slot == numSlots)
+			writePage();
+
+		page.put(slot >>> 3, (byte)(page.get(slot >>> 3) | (1 << (slot & 7))));
+		page.position(headerSize + slot * td.getSize());
+		for(int j = 0; j < td.numFields(); j++)
+			t.writeField(j, page);
+		slot++;
+		numTuples++;
+	}
+
+	private void writePage() throws IOException {
+		page.clear();
+		FileChannel ch = out.getChannel();
+		while(page.hasRemaining())
+			ch.write(page);
+		numPages++;
+		page = ByteBuffer.wrap(HeapPage.createEmptyPageData());
+		slot = 0;
+	}
+
+	/**
+	 * Write out the last page and close the file for writing; no more
+	 * tuples can be added after this.  Called implicitly by iterator().
+	 */
+	public void finish() throws IOException {
+		if(out == null)
+			return;
+		try {
+			if(slot > 0)
+				writePage();
+		} finally {
+			out.close();
+			out = null;
+			page = null;
+		}
+	}
+
+	/**
+	 * @return the number of tuples added
+	 */
+	public long numTuples() {
+		return numTuples;
+	}
+
+	public TupleDesc getTupleDesc() {
+		return td;
+	}
+
+	/**
+	 * @return an iterator over the tuples of this file, in the order they
+	 *         were added.  The file can be iterated any number of times.
+	 */
+	public DbFileIterator iterator() throws IOException {
+		finish();
+		return new SpillIterator();
+	}
+
+	/**
+	 * Remove the file from disk.
+	 */
+	public void delete() {
+		try {
+			finish();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		file.delete();
+	}
+
+	/**
+	 * Reads the file one page at a time.
+	 */
+	private class SpillIterator implements DbFileIterator {
+		private static final long serialVersionUID = 1L;
+
+		private transient FileChannel ch;
+		private int pgNo;
+		private transient Iterator<Tuple> tuples;
+
+		public void open() throws DbException {
+			close();
+			try {
+				ch = new FileInputStream(file).getChannel();
+			} catch (IOException e) {
+				throw new DbException("cannot open spill file: " + e.getMessage());
+			}
+			pgNo = 0;
+			tuples = null;
+		}
+
+		public boolean hasNext() throws DbException {
+			if(ch == null) return false;
+			while(tuples == null || !tuples.hasNext()) {
+				if(pgNo >= numPages) return false;
+				tuples = readPage(pgNo++).iterator();
+			}
+			return true;
+		}
+
+		private HeapPage readPage(int no) throws DbException {
+			ByteBuffer buf = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+			try {
+				long offset = (long)no * BufferPool.PAGE_SIZE;
+				while(buf.hasRemaining()) {
+					if(ch.read(buf, offset + buf.position()) < 0)
+						throw new DbException("spill file is truncated");
+				}
+				buf.flip();
+				return new HeapPage(new HeapPageId(SPILL_TABLE_ID, no), td, buf);
+			} catch (IOException e) {
+				throw new DbException("cannot read spill file: " + e.getMessage());
+			}
+		}
+
+		public Tuple next() throws DbException, NoSuchElementException {
+			if(!hasNext()) throw new NoSuchElementException();
+			return tuples.next();
+		}
+
+		public void rewind() throws DbException {
+			open();
+		}
+
+		public void close() {
+			if(ch != null) {
+				try {
+					ch.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			ch = null;
+			tuples = null;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -20,9 +21,13 @@ public class StringField implements Field {
 	 * Constructor.
 	 * 
 	 * @param s
-	 *            The value of this field.
+	 *            The value of this field.  Characters past maxSize are
+	 *            dropped.
 	 * @param maxSize
 	 *            The maximum size of this string
+	 * @throws IllegalArgumentException
+	 *             if s has a character that cannot be stored, i.e. one
+	 *             above 0xFF (see {@link Type#STRING_CHARSET})
 	 */
 	public StringField(String s, int maxSize) {
 		this.maxSize = maxSize;
@@ -31,6 +36,11 @@ public class StringField implements Field {
 			value = s.substring(0, maxSize);
 		else
 			value = s;
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) > 0xff)
+				throw new IllegalArgumentException("character " + (int) value.charAt(i)
+						+ " at position " + i + " is not in " + Type.STRING_CHARSET);
+		}
 	}
 
 	public String toString() {
@@ -67,6 +77,22 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string to buf, in the same maxSize + 4 byte format as
+	 * {@link #serialize(DataOutputStream)}.
+	 * 
+	 * @param buf
+	 *            Where the string is written
+	 */
+	public void serialize(ByteBuffer buf) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(len);
+		for (int i = 0; i < len; i++)
+			buf.put((byte) value.charAt(i));
+		for (int i = len; i < maxSize; i++)
+			buf.put((byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
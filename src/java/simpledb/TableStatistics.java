@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Summary statistics of one table that the Catalog persists along with the
+ * schema, so that they survive a restart without rescanning the table.
+ * <p>
+ * For each int column this records the smallest and largest value; string
+ * columns have no range.  The number of distinct values of a column is
+ * recorded when it is known, and is -1 otherwise.
+ *
+ * @see Catalog#getTableStatistics
+ */
+public class TableStatistics {
+
+	private final int numPages;
+	private final long numTuples;
+	private final int[] min;
+	private final int[] max;
+	private final long[] distinct;
+
+	/**
+	 * @param numPages number of pages of the table
+	 * @param numTuples number of tuples of the table
+	 * @param min smallest value of each int column; ignored for other columns
+	 * @param max largest value of each int column; ignored for other columns
+	 * @param distinct number of distinct values of each column, or -1 where
+	 *     unknown
+	 */
+	public TableStatistics(int numPages, long numTuples, int[] min, int[] max, long[] distinct) {
+		if(min.length != max.length || min.length != distinct.length)
+			throw new IllegalArgumentException("column arrays differ in length");
+		this.numPages = numPages;
+		this.numTuples = numTuples;
+		this.min = min.clone();
+		this.max = max.clone();
+		this.distinct = distinct.clone();
+	}
+
+	/**
+	 * Scan a table and compute its statistics.  Distinct counts are left
+	 * unknown.
+	 *
+	 * @param tableid the table to scan
+	 */
+	public static TableStatistics compute(int tableid)
+			throws DbException, TransactionAbortedException {
+		DbFile f = Database.getCatalog().getDbFile(tableid);
+		TupleDesc td = f.getTupleDesc();
+		int numFields = td.numFields();
+		int[] min = new int[numFields];
+		int[] max = new int[numFields];
+		long[] distinct = new long[numFields];
+		for(int i = 0; i < numFields; i++) {
+			min[i] = Integer.MAX_VALUE;
+			max[i] = Integer.MIN_VALUE;
+			distinct[i] = -1;
+		}
+
+		long numTuples = 0;
+		DbFileIterator it = f.iterator(new TransactionId());
+		it.open();
+		try {
+			while(it.hasNext()) {
+				Tuple t = it.next();
+				for(int i = 0; i < numFields; i++) {
+					if(td.getFieldType(i) != Type.INT_TYPE) continue;
+					int v = ((IntField)t.getField(i)).getValue();
+					if(v < min[i]) min[i] = v;
+					if(v > max[i]) max[i] = v;
+				}
+				numTuples++;
+			}
+		} finally {
+			it.close();
+		}
+
+		int numPages = f instanceof HeapFile ? ((HeapFile)f).numPages() : 0;
+		return new TableStatistics(numPages, numTuples, min, max, distinct);
+	}
+
+	public int getNumPages() {
+		return numPages;
+	}
+
+	public long getNumTuples() {
+		return numTuples;
+	}
+
+	public int getNumFields() {
+		return min.length;
+	}
+
+	/**
+	 * @return the smallest value of int column i; Integer.MAX_VALUE if the
+	 *     table is empty
+	 */
+	public int getMin(int i) throws NoSuchElementException {
+		checkField(i);
+		return min[i];
+	}
+
+	/**
+	 * @return the largest value of int column i; Integer.MIN_VALUE if the
+	 *     table is empty
+	 */
+	public int getMax(int i) throws NoSuchElementException {
+		checkField(i);
+		return max[i];
+	}
+
+	/**
+	 * @return the number of distinct values of column i, or -1 if unknown
+	 */
+	public long getDistinct(int i) throws NoSuchElementException {
+		checkField(i);
+		return distinct[i];
+	}
+
+	private void checkField(int i) throws NoSuchElementException {
+		if(i < 0 || i >= min.length) throw new NoSuchElementException("no field " + i);
+	}
+}
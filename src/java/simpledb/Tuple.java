@@ -1,35 +1,56 @@
 package simpledb;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Iterator;
-
-import com.sun.xml.internal.bind.v2.runtime.reflect.opt.FieldAccessor_Double;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values themselves are stored compactly rather than as Field objects:
+ * int fields live in an int array, and string fields live in a byte slab in
+ * their on-disk encoding, with their lengths in the int array.  getField
+ * builds a Field view of a value each time it is called.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
-    
+
     /**
      * Use combination
      */
     private TupleDesc td;
-    
-    
+
+
+    /**
+     * Value of each int field, or length of each string field
+     */
+    private int[] ints;
+
+    /**
+     * Bytes of the string fields, laid out by TupleDesc.slabLayout; null if
+     * the schema has no string fields
+     */
+    private byte[] slab;
+
     /**
-     * Fields
+     * Bit i is set iff field i has been set; fields from 64 on use more
      */
-    private ArrayList<Field> fields;
+    private long set;
+    private long[] moreSet;
+
+    /**
+     * Location of this tuple on disk, or null
+     */
+    private RecordId rid;
 
     /**
      * Create a new tuple with the specified schema (type).
-     * 
+     *
      * @param td
      *            the schema of this tuple. It must be a valid TupleDesc
      *            instance with at least one field.
@@ -37,36 +58,59 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
     	this.td = td;
-    	this.fields = new ArrayList<Field>();
-    	
+
     	int length = td.numFields();
-    	for(int i = 0; i < length; i++) {
-    		fields.add(null);
-    	}
-    	
+    	this.ints = new int[length];
+    	int slabSize = td.slabLayout()[length];
+    	if(slabSize > 0) this.slab = new byte[slabSize];
+    	if(length > 64) this.moreSet = new long[(length - 1) >>> 6];
     }
-    
+
     /**
      * Create a new tuple with two tuples
-     * 
+     *
      * @param tuple1
      * 				tuple1
-     * 
+     *
      * @param tuple2
      * 				tuple2
      */
     public Tuple(Tuple tuple1, Tuple tuple2) {
-    	TupleDesc td1 = tuple1.getTupleDesc();
-    	TupleDesc td2 = tuple2.getTupleDesc();
-    	this.td = TupleDesc.merge(td1, td2);
-    	
-    	this.fields = new ArrayList<Field>();
-    	
-    	Iterator<Field> iter = tuple1.fields();
-    	while(iter.hasNext()) fields.add(iter.next());
-    	
-    	iter = tuple2.fields();
-    	while(iter.hasNext()) fields.add(iter.next());
+    	this(TupleDesc.merge(tuple1.getTupleDesc(), tuple2.getTupleDesc()), tuple1, tuple2);
+    }
+
+    /**
+     * Create a new tuple with two tuples, using a schema that the caller has
+     * already merged, so that operators producing many concatenated tuples
+     * (such as Join) do not merge the two TupleDescs once per tuple.
+     *
+     * @param td
+     *            the schema of the result; must equal
+     *            TupleDesc.merge(tuple1.getTupleDesc(), tuple2.getTupleDesc())
+     * @param tuple1
+     * 				tuple1
+     * @param tuple2
+     * 				tuple2
+     */
+    public Tuple(TupleDesc td, Tuple tuple1, Tuple tuple2) {
+    	this(td);
+
+    	int n1 = tuple1.ints.length;
+    	int n2 = tuple2.ints.length;
+    	System.arraycopy(tuple1.ints, 0, ints, 0, n1);
+    	System.arraycopy(tuple2.ints, 0, ints, n1, n2);
+
+    	// the string fields of tuple2 follow those of tuple1 in the slab
+    	int s1 = tuple1.slab == null ? 0 : tuple1.slab.length;
+    	if(s1 > 0) System.arraycopy(tuple1.slab, 0, slab, 0, s1);
+    	if(tuple2.slab != null) System.arraycopy(tuple2.slab, 0, slab, s1, tuple2.slab.length);
+
+    	if(n1 + n2 <= 64) {
+    		set = tuple1.set | (n1 == 64 ? 0 : tuple2.set << n1);
+    	} else {
+    		for(int i = 0; i < n1; i++) if(tuple1.isSet(i)) markSet(i, true);
+    		for(int i = 0; i < n2; i++) if(tuple2.isSet(i)) markSet(n1 + i, true);
+    	}
     }
 
     /**
@@ -84,62 +128,195 @@ public class Tuple implements Serializable {
      */
     public RecordId getRecordId() {
         // some code goes here
-        return null;
+        return rid;
     }
 
     /**
      * Set the RecordId information for this tuple.
-     * 
+     *
      * @param rid
      *            the new RecordId for this tuple.
      */
     public void setRecordId(RecordId rid) {
         // some code goes here
+    	this.rid = rid;
     }
 
     /**
      * Change the value of the ith field of this tuple.
-     * 
+     *
      * @param i
      *            index of the field to change. It must be a valid index.
      * @param f
      *            new value for the field.
+     * @throws IllegalArgumentException
+     *             if f is not of the type of the ith field
      */
     public void setField(int i, Field f) {
         // some code goes here
-    	fields.set(i, f);
+    	if(f == null) {
+    		markSet(i, false);
+    		return;
+    	}
+    	if(f.getType() != td.getFieldType(i))
+    		throw new IllegalArgumentException("field " + i + " is not of type " + f.getType());
+
+    	if(f instanceof IntField) {
+    		ints[i] = ((IntField)f).getValue();
+    	} else {
+    		String s = ((StringField)f).getValue();
+    		int off = td.slabLayout()[i];
+    		int len = Math.min(s.length(), Type.STRING_LEN);
+    		// StringField only holds ISO-8859-1 characters, so this is lossless
+    		for(int k = 0; k < len; k++) slab[off + k] = (byte)s.charAt(k);
+    		ints[i] = len;
+    	}
+    	markSet(i, true);
+    }
+
+    /**
+     * Read the ith field of this tuple from buf, in the format written by
+     * {@link Field#serialize}, without creating a Field.
+     *
+     * @throws ParseException
+     *             if the bytes are not a valid value of the field's type
+     */
+    void readField(int i, ByteBuffer buf) throws ParseException {
+    	int v = buf.getInt();
+    	if(td.getFieldType(i) == Type.STRING_TYPE) {
+    		if(v < 0 || v > Type.STRING_LEN)
+    			throw new ParseException("bad string length " + v, buf.position());
+    		buf.get(slab, td.slabLayout()[i], v);
+    		buf.position(buf.position() + Type.STRING_LEN - v);
+    	}
+    	ints[i] = v;
+    	markSet(i, true);
+    }
+
+    /**
+     * Write the ith field of this tuple to buf, in the format of
+     * {@link Field#serialize}, without creating a Field.  An unset field is
+     * written as zero or the empty string.
+     */
+    void writeField(int i, ByteBuffer buf) {
+    	boolean isSet = isSet(i);
+    	int v = isSet ? ints[i] : 0;
+    	buf.putInt(v);
+    	if(td.getFieldType(i) == Type.STRING_TYPE) {
+    		if(isSet) buf.put(slab, td.slabLayout()[i], v);
+    		for(int k = v; k < Type.STRING_LEN; k++) buf.put((byte)0);
+    	}
     }
 
     /**
      * @return the value of the ith field, or null if it has not been set.
-     * 
+     *
      * @param i
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
         // some code goes here
         // return null;
-    	return fields.get(i);
+    	if(!isSet(i)) return null;
+    	if(td.getFieldType(i) == Type.INT_TYPE) return new IntField(ints[i]);
+
+    	String s = new String(slab, td.slabLayout()[i], ints[i], Type.STRING_CHARSET);
+    	return new StringField(s, Type.STRING_LEN);
+    }
+
+    /**
+     * @return the value of int field i without creating a Field; the field
+     *         must be set
+     */
+    int getInt(int i) {
+    	return ints[i];
+    }
+
+    /**
+     * @return a hash of the bytes of string field i, which must be set
+     */
+    int stringHash(int i) {
+    	int off = td.slabLayout()[i];
+    	int h = 1;
+    	for(int k = 0; k < ints[i]; k++) h = 31 * h + slab[off + k];
+    	return h;
+    }
+
+    /**
+     * @return true if string field i, which must be set, consists of bytes
+     */
+    boolean stringEquals(int i, byte[] bytes) {
+    	if(ints[i] != bytes.length) return false;
+    	int off = td.slabLayout()[i];
+    	for(int k = 0; k < bytes.length; k++) {
+    		if(slab[off + k] != bytes[k]) return false;
+    	}
+    	return true;
+    }
+
+    /**
+     * @return a copy of the bytes of string field i, which must be set
+     */
+    byte[] stringBytes(int i) {
+    	byte[] bytes = new byte[ints[i]];
+    	System.arraycopy(slab, td.slabLayout()[i], bytes, 0, bytes.length);
+    	return bytes;
+    }
+
+    /**
+     * @return the first four bytes of string field i, which must be set, as
+     *         the order-preserving int of StringHistogram.stringToInt
+     */
+    int stringPrefix(int i) {
+    	int off = td.slabLayout()[i];
+    	int v = 0;
+    	for(int k = 0; k < 4; k++) {
+    		v <<= 8;
+    		if(k < ints[i]) v |= slab[off + k] & 0xff;
+    	}
+    	return v ^ 0x80000000;
+    }
+
+    /**
+     * @return true if field i has been set
+     */
+    boolean isSet(int i) {
+    	if(i >= ints.length) throw new IndexOutOfBoundsException("no field " + i);
+    	if(i < 64) return (set & (1L << i)) != 0;
+    	return (moreSet[(i >>> 6) - 1] & (1L << i)) != 0;
+    }
+
+    private void markSet(int i, boolean value) {
+    	if(i >= ints.length) throw new IndexOutOfBoundsException("no field " + i);
+    	if(i < 64) {
+    		if(value) set |= 1L << i;
+    		else set &= ~(1L << i);
+    	} else {
+    		if(value) moreSet[(i >>> 6) - 1] |= 1L << i;
+    		else moreSet[(i >>> 6) - 1] &= ~(1L << i);
+    	}
     }
 
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
-     * 
+     *
      * column1\tcolumn2\tcolumn3\t...\tcolumnN\n
-     * 
+     *
      * where \t is any whitespace, except newline, and \n is a newline
      */
     public String toString() {
         // some code goes here
         // throw new UnsupportedOperationException("Implement this");
-    	int length = fields.size();
-    	String[] result = new String[length];
-    	for(int i = 0; i < length; i++) result[i] = fields.get(i).toString();
-    	return String.join("\t", result) + "\n";
-    	
+    	StringBuilder result = new StringBuilder();
+    	for(int i = 0; i < ints.length; i++) {
+    		if(i > 0) result.append('\t');
+    		result.append(getField(i));
+    	}
+    	return result.append('\n').toString();
+
     }
-    
+
     /**
      * @return
      *        An iterator which iterates over all the fields of this tuple
@@ -148,6 +325,21 @@ public class Tuple implements Serializable {
     {
         // some code goes here
         // return null;
-    	return fields.iterator();
+    	return new Iterator<Field>() {
+    		private int i = 0;
+
+    		public boolean hasNext() {
+    			return i < ints.length;
+    		}
+
+    		public Field next() {
+    			if(i >= ints.length) throw new NoSuchElementException();
+    			return getField(i++);
+    		}
+
+    		public void remove() {
+    			throw new UnsupportedOperationException();
+    		}
+    	};
     }
 }
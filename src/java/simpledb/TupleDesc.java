@@ -60,6 +60,13 @@ public class TupleDesc implements Serializable {
      * The collection to store
      */
     private ArrayList<TDItem> descs;
+    
+    /**
+     * Where Tuple keeps each string field in its byte slab: the byte offset
+     * of field i, or -1 if field i is not a string, followed by the total
+     * slab size.  Computed on first use.
+     */
+    private transient volatile int[] slabLayout;
 
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
@@ -119,7 +126,9 @@ public class TupleDesc implements Serializable {
     		TDItem item = iter.next();
     		typeAr[index] = item.getFieldType();
     		fieldAr[index] = alias + "." + item.getFieldName();
+    		index++;
     	}
+    	descs = new ArrayList<TDItem>();
     	for(int i = 0; i < numFields; i++) {
     		descs.add(new TDItem(typeAr[i], fieldAr[i]));
     	}
@@ -201,6 +210,30 @@ public class TupleDesc implements Serializable {
     	return size;
     }
 
+    /**
+     * @return the layout of a Tuple's string slab for this schema
+     * @see #slabLayout
+     */
+    int[] slabLayout() {
+    	int[] layout = slabLayout;
+    	if(layout == null) {
+    		int numFields = descs.size();
+    		layout = new int[numFields + 1];
+    		int size = 0;
+    		for(int i = 0; i < numFields; i++) {
+    			if(descs.get(i).fieldType == Type.STRING_TYPE) {
+    				layout[i] = size;
+    				size += Type.STRING_LEN;
+    			} else {
+    				layout[i] = -1;
+    			}
+    		}
+    		layout[numFields] = size;
+    		slabLayout = layout;
+    	}
+    	return layout;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -0,0 +1,88 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * 2Q eviction (Johnson and Shasha).  Pages read for the first time go to a
+ * FIFO queue A1in.  Pages evicted from A1in are remembered, without their
+ * data, in a ghost queue A1out; if such a page is read again it is
+ * considered hot and goes to the LRU queue Am.  A page that is touched
+ * only once, like every page of a large sequential scan, therefore never
+ * pushes hot pages out of Am.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+	
+	/**
+	 * FIFO of pages seen once, oldest first
+	 */
+	private LinkedHashSet<PageId> a1in;
+	
+	/**
+	 * Ids of pages recently evicted from a1in, oldest first
+	 */
+	private LinkedHashSet<PageId> a1out;
+	
+	/**
+	 * LRU list of hot pages, least recently used first
+	 */
+	private LinkedHashSet<PageId> am;
+	
+	/**
+	 * Target size of a1in
+	 */
+	private int kin;
+	
+	/**
+	 * Maximum size of a1out
+	 */
+	private int kout;
+	
+	/**
+	 * @param capacity
+	 *            number of pages this policy manages.  A1in is kept at a
+	 *            quarter and A1out at half of it, as suggested in the paper.
+	 */
+	public TwoQueueEvictionPolicy(int capacity) {
+		this.a1in = new LinkedHashSet<PageId>();
+		this.a1out = new LinkedHashSet<PageId>();
+		this.am = new LinkedHashSet<PageId>();
+		this.kin = Math.max(1, capacity / 4);
+		this.kout = Math.max(1, capacity / 2);
+	}
+
+	public void pageAdded(PageId pid) {
+		if(a1out.remove(pid)) {
+			am.add(pid);
+		} else {
+			a1in.add(pid);
+		}
+	}
+
+	public void pageAccessed(PageId pid) {
+		// hits in a1in are deliberately ignored: they are usually correlated
+		// references by the same scan
+		if(am.remove(pid)) am.add(pid);
+	}
+
+	public void pageRemoved(PageId pid) {
+		if(a1in.remove(pid)) {
+			a1out.add(pid);
+			if(a1out.size() > kout) {
+				Iterator<PageId> iter = a1out.iterator();
+				iter.next();
+				iter.remove();
+			}
+		} else {
+			am.remove(pid);
+		}
+	}
+
+	public PageId victim() {
+		if(a1in.size() > kin || (am.isEmpty() && !a1in.isEmpty())) {
+			return a1in.iterator().next();
+		}
+		if(!am.isEmpty()) return am.iterator().next();
+		return a1in.isEmpty() ? null : a1in.iterator().next();
+	}
+}
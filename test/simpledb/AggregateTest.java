@@ -176,6 +176,39 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Aggregate.getNext() with more groups than fit in a one-page budget
+   * spills them and still returns each group once
+   */
+  @Test public void spill() throws Exception {
+    int groups = 3000;
+    int[] data = new int[groups * 2 * 2];
+    for (int i = 0; i < groups * 2; i++) {
+      data[2 * i] = i % groups;
+      data[2 * i + 1] = i;
+    }
+    Aggregate op = new Aggregate(TestUtil.createTupleList(width1, data), 1, 0,
+        Aggregator.Op.SUM, 1);
+    op.open();
+    assertTrue(op.isSpilled());
+    for (int pass = 0; pass < 2; pass++) {
+      boolean[] seen = new boolean[groups];
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int g = ((IntField) t.getField(0)).getValue();
+        assertTrue(!seen[g]);
+        seen[g] = true;
+        // group g holds the values g and g + groups
+        assertEquals(2 * g + groups, ((IntField) t.getField(1)).getValue());
+        count++;
+      }
+      assertEquals(groups, count);
+      op.rewind();
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+
+    /** Large enough for the pool to be split into two shards */
+    private static final int POOL_PAGES = 128;
+
+    private static final int FILE_PAGES = 300;
+
+    private HeapFile f;
+    private BufferPool pool;
+    private TransactionId tid;
+
+    /**
+     * A HeapFile that counts, and slows down, its page reads
+     */
+    private static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        CountingHeapFile(File file, TupleDesc td) {
+            super(file, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    @Before public void setUp() throws Exception {
+        f = SystemTestUtil.createRandomHeapFile(2, FILE_PAGES * 504, null, null);
+        assertEquals(FILE_PAGES, f.numPages());
+        pool = new BufferPool(POOL_PAGES, "lru");
+        tid = new TransactionId();
+    }
+
+    private PageId pid(int pgNo) {
+        return new HeapPageId(f.getId(), pgNo);
+    }
+
+    /**
+     * Reading more pages than fit evicts pages instead of failing
+     */
+    @Test public void overfill() throws Exception {
+        for (int i = 0; i < FILE_PAGES; i++) {
+            assertNotNull(pool.getPage(tid, pid(i), Permissions.READ_ONLY));
+        }
+        assertEquals(0, pool.getNumFreePages());
+        assertNotNull(pool.peekPage(pid(FILE_PAGES - 1)));
+        assertEquals(null, pool.peekPage(pid(0)));
+    }
+
+    /**
+     * Dirty pages stay cached however many clean pages are read after them
+     */
+    @Test public void dirtyPagesAreNotEvicted() throws Exception {
+        Page[] dirty = new Page[10];
+        for (int i = 0; i < dirty.length; i++) {
+            dirty[i] = pool.getPage(tid, pid(i), Permissions.READ_WRITE);
+            dirty[i].markDirty(true, tid);
+        }
+        for (int i = dirty.length; i < FILE_PAGES; i++) {
+            pool.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        for (int i = 0; i < dirty.length; i++) {
+            assertSame(dirty[i], pool.peekPage(pid(i)));
+        }
+
+        // once committed they are clean, and may go
+        pool.transactionComplete(tid, true);
+        for (int i = dirty.length; i < FILE_PAGES; i++) {
+            pool.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(null, pool.peekPage(pid(0)));
+    }
+
+    /**
+     * A pool holding nothing but dirty pages refuses to read another page
+     */
+    @Test public void allDirty() throws Exception {
+        for (int i = 0; i < POOL_PAGES; i++) {
+            pool.getPage(tid, pid(i), Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        try {
+            pool.getPage(tid, pid(POOL_PAGES), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // aborting throws the dirty pages away
+        pool.transactionComplete(tid, false);
+        assertEquals(POOL_PAGES, pool.getNumFreePages());
+        assertNotNull(pool.getPage(tid, pid(POOL_PAGES), Permissions.READ_ONLY));
+    }
+
+    /**
+     * Threads missing on the same page at once share a single read
+     */
+    @Test public void concurrentMissReadsOnce() throws Exception {
+        final CountingHeapFile counting = new CountingHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(counting, SystemTestUtil.getUUID());
+        final PageId id = new HeapPageId(counting.getId(), 7);
+
+        final int threads = 8;
+        final Page[] pages = new Page[threads];
+        final Throwable[] errors = new Throwable[threads];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            ts[i] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                        pages[n] = pool.getPage(tid, id, Permissions.READ_ONLY);
+                    } catch (Throwable e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+            ts[i].start();
+        }
+        start.countDown();
+        for (Thread t : ts) t.join();
+
+        for (int i = 0; i < threads; i++) {
+            if (errors[i] != null) throw new AssertionError(errors[i]);
+            assertSame(pages[0], pages[i]);
+        }
+        assertEquals(1, counting.reads.get());
+        assertEquals(POOL_PAGES - 1, pool.getNumFreePages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
@@ -2,6 +2,9 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -68,6 +71,114 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.getTableName()
+     */
+    @Test public void getTableName() {
+        assertEquals(name, Database.getCatalog().getTableName(-2));
+        assertEquals(nameThisTestRun, Database.getCatalog().getTableName(-1));
+
+        try {
+            Database.getCatalog().getTableName(0);
+            Assert.fail("Should not find table with id 0");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+    }
+
+    /**
+     * Unit test for name conflicts and Catalog.getVersion()
+     */
+    @Test public void replaceTable() {
+        long version = Database.getCatalog().getVersion();
+        Database.getCatalog().addTable(new SkeletonFile(-3, Utility.getTupleDesc(3)), name);
+        assertEquals(-3, Database.getCatalog().getTableId(name));
+        assertEquals(3, Database.getCatalog().getTupleDesc(-3).numFields());
+        assertEquals(version + 1, Database.getCatalog().getVersion());
+    }
+
+    /**
+     * Unit test for Catalog.saveSchema() and loading a binary catalog
+     */
+    @Test public void saveAndLoadSchema() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null, tuples);
+        String hfName = Database.getCatalog().getTableName(hf.getId());
+        Database.getCatalog().setTableStatistics(hf.getId(), TableStatistics.compute(hf.getId()));
+
+        File catalogFile = File.createTempFile("catalog", ".bin");
+        catalogFile.deleteOnExit();
+        Database.getCatalog().saveSchema(catalogFile.getPath());
+        Database.getCatalog().clear();
+        Database.getCatalog().loadSchema(catalogFile.getPath());
+
+        int id = Database.getCatalog().getTableId(hfName);
+        assertEquals(hf.getTupleDesc(), Database.getCatalog().getTupleDesc(id));
+        assertEquals(hf.numPages(), ((HeapFile) Database.getCatalog().getDbFile(id)).numPages());
+
+        int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+        for (ArrayList<Integer> t : tuples) {
+            min = Math.min(min, t.get(1));
+            max = Math.max(max, t.get(1));
+        }
+        TableStatistics stats = Database.getCatalog().getTableStatistics(id);
+        assertEquals(1000, stats.getNumTuples());
+        assertEquals(hf.numPages(), stats.getNumPages());
+        assertEquals(min, stats.getMin(1));
+        assertEquals(max, stats.getMax(1));
+        assertEquals(-1, stats.getDistinct(1));
+    }
+
+    /**
+     * Unit test for table ids surviving a move of the data directory
+     */
+    @Test public void relocateCatalog() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        dir.delete();
+        File moved = new File(dir.getPath() + "-moved");
+        File data = new File(dir, "t.dat");
+        assertEquals(true, dir.mkdir());
+        HeapFileEncoder.convert(new ArrayList<ArrayList<Integer>>(), data, BufferPool.PAGE_SIZE, 2);
+
+        Database.getCatalog().addTable(new HeapFile(data, Utility.getTupleDesc(2), 1234), "t");
+        Database.getCatalog().saveSchema(new File(dir, "catalog.bin").getPath());
+        Database.getCatalog().clear();
+
+        assertEquals(true, dir.renameTo(moved));
+        try {
+            Database.getCatalog().loadSchema(new File(moved, "catalog.bin").getPath());
+            assertEquals(1234, Database.getCatalog().getTableId("t"));
+            HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(1234);
+            assertEquals(new File(moved, "t.dat").getAbsoluteFile(), hf.getFile().getAbsoluteFile());
+        } finally {
+            Database.getCatalog().clear();
+            new File(moved, "t.dat").delete();
+            new File(moved, "catalog.bin").delete();
+            moved.delete();
+        }
+    }
+
+    /**
+     * Unit test for tables of a schema file whose names hash to the same id
+     */
+    @Test public void tableIdCollision() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        // "Aa" and "BB" have the same String.hashCode()
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        FileWriter w = new FileWriter(schema);
+        w.write("Aa (x int)\nBB (y int)\n");
+        w.close();
+        try {
+            Database.getCatalog().loadSchema(schema.getPath());
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            Database.getCatalog().clear();
+        }
+    }
+
     /**
      * JUnit suite target
      */
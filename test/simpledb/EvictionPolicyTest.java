@@ -0,0 +1,128 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SystemTestUtil;
+
+public class EvictionPolicyTest {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for LruEvictionPolicy: the least recently used page goes
+     */
+    @Test public void lru() {
+        EvictionPolicy p = new LruEvictionPolicy();
+        assertNull(p.victim());
+        p.pageAdded(pid(0));
+        p.pageAdded(pid(1));
+        p.pageAdded(pid(2));
+        p.pageAccessed(pid(0));
+        assertEquals(pid(1), p.victim());
+        p.pageRemoved(pid(1));
+        assertEquals(pid(2), p.victim());
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: referenced pages get a second chance
+     */
+    @Test public void clock() {
+        EvictionPolicy p = new ClockEvictionPolicy();
+        assertNull(p.victim());
+        p.pageAdded(pid(0));
+        p.pageAdded(pid(1));
+        p.pageAdded(pid(2));
+        p.pageAccessed(pid(0));
+        p.pageAccessed(pid(1));
+        assertEquals(pid(2), p.victim());
+        p.pageRemoved(pid(2));
+
+        // every bit has been cleared by the sweep
+        p.pageAccessed(pid(0));
+        assertEquals(pid(1), p.victim());
+    }
+
+    /**
+     * Unit test for TwoQueueEvictionPolicy: a scan does not flush hot pages
+     */
+    @Test public void twoQueueScanResistance() {
+        EvictionPolicy p = new TwoQueueEvictionPolicy(8);
+
+        // page 0 is read, evicted, and read again, so it becomes hot
+        p.pageAdded(pid(0));
+        p.pageRemoved(pid(0));
+        p.pageAdded(pid(0));
+
+        // a scan runs through the pool; none of its pages displace page 0
+        for (int i = 100; i < 200; i++) {
+            p.pageAdded(pid(i));
+            if (i >= 106) {
+                PageId victim = p.victim();
+                assertEquals(pid(i - 6), victim);
+                p.pageRemoved(victim);
+            }
+        }
+    }
+
+    /**
+     * Unit test for LruKEvictionPolicy: pages with fewer than K accesses go first
+     */
+    @Test public void lruK() {
+        EvictionPolicy p = new LruKEvictionPolicy(2, 4);
+        p.pageAdded(pid(0));
+        p.pageAccessed(pid(0));
+        p.pageAdded(pid(1));
+        p.pageAdded(pid(2));
+        assertEquals(pid(1), p.victim());
+        p.pageRemoved(pid(1));
+        assertEquals(pid(2), p.victim());
+        p.pageRemoved(pid(2));
+        assertEquals(pid(0), p.victim());
+
+        // history survives eviction: page 2 comes back with two accesses
+        p.pageAdded(pid(2));
+        p.pageAdded(pid(3));
+        assertEquals(pid(3), p.victim());
+        p.pageRemoved(pid(3));
+
+        // page 0's second-to-last access is older than page 2's
+        assertEquals(pid(0), p.victim());
+        p.pageAccessed(pid(0));
+        p.pageAccessed(pid(0));
+        assertEquals(pid(2), p.victim());
+    }
+
+    /**
+     * Flushing pages does not count as accessing them: the least recently
+     * read page is still evicted after flushAllPages
+     */
+    @Test public void flushIsNotAccess() throws Exception {
+        Database.reset();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 4 * 504, null, null);
+        BufferPool pool = new BufferPool(3, "lru");
+        TransactionId tid = new TransactionId();
+        Page first = pool.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_WRITE);
+        pool.getPage(tid, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY);
+        pool.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+        first.markDirty(true, tid);
+        pool.flushAllPages();
+
+        pool.getPage(tid, new HeapPageId(f.getId(), 3), Permissions.READ_ONLY);
+        assertNull(pool.peekPage(first.getId()));
+        assertNotNull(pool.peekPage(new HeapPageId(f.getId(), 1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    5, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    5, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 5, 6,
+                    5, 6, 5, 6, 7,
+                    5, 8, 5, 5, 6,
+                    5, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for HashEquiJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(6, count);
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() building on the left child
+   */
+  @Test public void buildLeft() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2, true);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() building on the right child; the
+   * output columns are still child1's followed by child2's
+   */
+  @Test public void buildRight() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2, false);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Only equality predicates are accepted
+   */
+  @Test(expected=IllegalArgumentException.class) public void rejectRange() {
+    new HashEquiJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * Two-column tuples whose first column cycles through the join keys
+   */
+  private static DbIterator keyed(int rows, int keys, int tag) {
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = i % keys;
+      data[2 * i + 1] = tag * rows + i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Check every output tuple and return how many there were
+   */
+  private static int countJoined(DbIterator op) throws Exception {
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * A build child larger than a one-page budget is partitioned to disk and
+   * still produces every match, including after a rewind
+   */
+  @Test public void spill() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, keyed(3000, 1000, 0), keyed(2000, 1000, 1), true, 1);
+    op.open();
+    assertTrue(op.isSpilled());
+    assertEquals(6000, countJoined(op));
+    op.rewind();
+    assertEquals(6000, countJoined(op));
+    op.close();
+  }
+
+  /**
+   * Spilling when the table is built on the right child
+   */
+  @Test public void spillBuildRight() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, keyed(2000, 500, 0), keyed(3000, 1000, 1), false, 1);
+    op.open();
+    assertTrue(op.isSpilled());
+    // keys below 500 appear 4 times on the left and 3 times on the right
+    assertEquals(500 * 4 * 3, countJoined(op));
+    op.close();
+  }
+
+  /**
+   * A partition that cannot be split because all its tuples share one key
+   * is joined a chunk at a time
+   */
+  @Test public void spillSkewed() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, keyed(2000, 1, 0), keyed(10, 1, 1), true, 1);
+    op.open();
+    assertTrue(op.isSpilled());
+    assertEquals(20000, countJoined(op));
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -121,6 +122,122 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A memory-mapped HeapFile reads the same pages and tuples as one that
+     * reads through its channel, and rejects the same page numbers
+     */
+    @Test
+    public void memoryMapped() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        // two and a bit pages, so the last page is partly empty
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 1100,
+                1 << 16, null, tuples);
+        HeapFile stream = new HeapFile(file, td, file.getAbsoluteFile().hashCode(), false);
+        HeapFile mapped = new HeapFile(file, td, stream.getId() + 1, true);
+        Database.getCatalog().addTable(stream, SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+        assertFalse(stream.isMemoryMapped());
+        assertEquals(3, mapped.numPages());
+
+        for (int i = 0; i < 3; i++) {
+            Page s = stream.readPage(new HeapPageId(stream.getId(), i));
+            Page m = mapped.readPage(new HeapPageId(mapped.getId(), i));
+            assertArrayEquals(s.getPageData(), m.getPageData());
+            // the mapped page is a view of the mapping, not a copy
+            assertTrue(((HeapPage) m).getPageBuffer().isDirect());
+            assertFalse(((HeapPage) s).getPageBuffer().isDirect());
+        }
+        SystemTestUtil.matchTuples(stream, tid, tuples);
+        SystemTestUtil.matchTuples(mapped, tid, tuples);
+
+        for (HeapFile hf : new HeapFile[] { stream, mapped }) {
+            try {
+                hf.readPage(new HeapPageId(hf.getId(), 3));
+                fail("expected exception");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    /**
+     * Threads reading pages of one HeapFile at the same time share its
+     * channel without seeing each other's pages
+     */
+    @Test
+    public void concurrentReadPage() throws Exception {
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 8 * 504,
+                1 << 16, null, null);
+        final HeapFile shared = new HeapFile(file, td, file.getAbsoluteFile().hashCode(), false);
+        Database.getCatalog().addTable(shared, SystemTestUtil.getUUID());
+        final int pages = shared.numPages();
+        assertEquals(8, pages);
+        final byte[][] expected = new byte[pages][];
+        for (int i = 0; i < pages; i++)
+            expected[i] = shared.readPage(new HeapPageId(shared.getId(), i)).getPageData();
+
+        final int threads = 8;
+        final Throwable[] errors = new Throwable[threads];
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            ts[i] = new Thread() {
+                public void run() {
+                    try {
+                        Random r = new Random(n);
+                        for (int j = 0; j < 500; j++) {
+                            int pgNo = r.nextInt(pages);
+                            Page p = shared.readPage(new HeapPageId(shared.getId(), pgNo));
+                            assertArrayEquals(expected[pgNo], p.getPageData());
+                        }
+                    } catch (Throwable e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+            ts[i].start();
+        }
+        for (Thread t : ts) t.join();
+        for (Throwable e : errors) {
+            if (e != null) throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * A scan with read-ahead through a pool too small for the read-ahead
+     * window returns every tuple in order and leaves dirty pages cached
+     */
+    @Test
+    public void readAheadSmallPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 40 * 504, null, tuples);
+        assertTrue(HeapFile.MAX_READ_AHEAD > 8);
+        BufferPool pool = Database.resetBufferPool(8);
+
+        // only two frames are left for the scan and its read-ahead
+        Page[] dirty = new Page[6];
+        for (int i = 0; i < dirty.length; i++) {
+            dirty[i] = pool.getPage(tid, new HeapPageId(big.getId(), 39 - i), Permissions.READ_WRITE);
+            dirty[i].markDirty(true, tid);
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            DbFileIterator it = big.iterator(tid);
+            it.open();
+            int n = 0;
+            while (it.hasNext()) {
+                assertEquals(tuples.get(n), SystemTestUtil.tupleToList(it.next()));
+                n++;
+            }
+            it.close();
+            assertEquals(tuples.size(), n);
+        }
+
+        for (int i = 0; i < dirty.length; i++) {
+            assertSame(dirty[i], pool.peekPage(dirty[i].getId()));
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -99,6 +99,29 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator(Predicate): only matching tuples are
+     * returned
+     */
+    @Test public void testPredicateIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate p = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000));
+        Iterator<Tuple> it = page.iterator(p);
+
+        int expected = 0;
+        for (int[] row : EXAMPLE_VALUES)
+            if (row[0] > 30000)
+                expected++;
+
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertTrue(((IntField) tup.getField(0)).getValue() > 30000);
+            count++;
+        }
+        assertEquals(expected, count);
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
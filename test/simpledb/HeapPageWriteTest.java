@@ -3,7 +3,9 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -85,6 +87,72 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Slot scans across 64-slot words: used slots on both sides of each
+     * word boundary and in the partial last word are found, and free slots
+     * are handed out in order without running past the last slot
+     */
+    @Test public void slotWordBoundaries() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        // 504 slots: seven full words and a last word of 56
+        assertEquals(504, slots);
+        assertTrue(!page.iterator().hasNext());
+
+        Tuple[] all = new Tuple[slots];
+        for (int i = 0; i < slots; ++i) {
+            all[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(all[i]);
+            assertEquals(i, all[i].getRecordId().tupleno());
+        }
+
+        int[] kept = new int[] { 63, 64, 127, 128, 447, 448, 503 };
+        int k = 0;
+        for (int i = 0; i < slots; ++i) {
+            if (k < kept.length && kept[k] == i) k++;
+            else page.deleteTuple(all[i]);
+        }
+        assertEquals(slots - kept.length, page.getNumEmptySlots());
+
+        Iterator<Tuple> it = page.iterator();
+        for (int slot : kept) {
+            assertTrue(it.hasNext());
+            assertEquals(slot, it.next().getRecordId().tupleno());
+        }
+        assertTrue(!it.hasNext());
+
+        // refilling takes the free slots in order, skipping the kept ones
+        k = 0;
+        for (int i = 0; i < slots; ++i) {
+            if (k < kept.length && kept[k] == i) {
+                k++;
+                continue;
+            }
+            all[i] = Utility.getHeapTuple(i, 2);
+            page.insertTuple(all[i]);
+            assertEquals(i, all[i].getRecordId().tupleno());
+        }
+        assertEquals(0, page.getNumEmptySlots());
+
+        // the unused bits after slot 503 are not free slots
+        try {
+            page.insertTuple(Utility.getHeapTuple(0, 2));
+            throw new Exception("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        // only the last slot of the partial last word is used
+        for (int i = 0; i < slots - 1; ++i)
+            page.deleteTuple(all[i]);
+        it = page.iterator();
+        assertTrue(it.hasNext());
+        assertEquals(slots - 1, it.next().getRecordId().tupleno());
+        assertTrue(!it.hasNext());
+        page.insertTuple(all[0]);
+        assertEquals(0, all[0].getRecordId().tupleno());
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
@@ -126,6 +194,55 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData() and getBeforeImage() after
+     * in-place modification
+     */
+    @Test public void pageDataAfterInsert() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        int free = page.getNumEmptySlots();
+        Tuple addition = Utility.getHeapTuple(7, 2);
+        page.insertTuple(addition);
+
+        // the serialized bytes round-trip to an identical page
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        assertEquals(free - 1, copy.getNumEmptySlots());
+        boolean found = false;
+        Iterator<Tuple> it = copy.iterator();
+        while (it.hasNext())
+            found |= TestUtil.compareTuples(addition, it.next());
+        assertTrue(found);
+
+        // neither the source bytes nor the before image were modified
+        assertTrue(Arrays.equals(HeapPageReadTest.EXAMPLE_DATA,
+                page.getBeforeImage().getPageData()));
+        assertEquals(free, page.getBeforeImage().getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage() of a page read from a memory
+     * mapping, after the modified page is written back over it
+     */
+    @Test public void beforeImageOfMappedPage() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        File file = SystemTestUtil.createRandomHeapFileUnopened(2, 20, 1000, null, null);
+        HeapFile hf = new HeapFile(file, td, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        try {
+            HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+            byte[] original = page.getPageData();
+            page.deleteTuple(page.iterator().next());
+            hf.writePage(page);
+
+            // the mapping now shows the write, but the before image does not
+            HeapPage reread = (HeapPage) hf.readPage(page.getId());
+            assertEquals(page.getNumEmptySlots(), reread.getNumEmptySlots());
+            assertTrue(Arrays.equals(original, page.getBeforeImage().getPageData()));
+        } finally {
+            hf.close();
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -178,6 +178,31 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over enough groups that its tables grow
+   */
+  @Test public void mergeManyGroups() throws Exception {
+    int[] data = new int[1000 * 2];
+    for (int i = 0; i < 1000; i++) {
+      data[2 * i] = i % 100;
+      data[2 * i + 1] = i;
+    }
+    DbIterator scan = TestUtil.createTupleList(width1, data);
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    int groups = 0;
+    while (it.hasNext()) {
+      assertEquals(10, ((IntField) it.next().getField(1)).getValue());
+      groups++;
+    }
+    assertEquals(100, groups);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Vector;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+  private LogicalPlan plan;
+  private HashMap<String, TableStats> stats;
+  private HashMap<String, Double> selectivities;
+
+  /**
+   * Add a table of rows tuples of 2 int columns with values below maxValue
+   * to the plan under alias
+   */
+  private void addTable(String alias, int rows, int maxValue) throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, maxValue, null, null);
+    plan.addScan(f.getId(), alias);
+    stats.put(Database.getCatalog().getTableName(f.getId()), new TableStats(f.getId(), 1000));
+    selectivities.put(alias, 1.0);
+  }
+
+  private void reset() {
+    plan = new LogicalPlan();
+    stats = new HashMap<String, TableStats>();
+    selectivities = new HashMap<String, Double>();
+  }
+
+  private static LogicalJoinNode join(String t1, String t2) {
+    return new LogicalJoinNode(t1, t2, t1 + ".c0", t2 + ".c1", Predicate.Op.EQUALS);
+  }
+
+  /**
+   * Check that order can be executed the way LogicalPlan does: each join
+   * joins two different subplans, and all tables end up in one
+   */
+  private static void checkExecutable(Vector<LogicalJoinNode> order, int tables) {
+    HashMap<String, Set<String>> component = new HashMap<String, Set<String>>();
+    for (LogicalJoinNode j : order) {
+      Set<String> c1 = component.get(j.t1Alias);
+      Set<String> c2 = component.get(j.t2Alias);
+      if (c1 == null) {
+        c1 = new HashSet<String>();
+        c1.add(j.t1Alias);
+      }
+      if (c2 == null) {
+        c2 = new HashSet<String>();
+        c2.add(j.t2Alias);
+      }
+      assertTrue(c1 != c2);
+      c1.addAll(c2);
+      for (String t : c1)
+        component.put(t, c1);
+    }
+    assertEquals(tables, component.values().iterator().next().size());
+  }
+
+  /**
+   * enumerateSubsets returns every subset of the given size once
+   */
+  @Test public void enumerateSubsets() {
+    Vector<Integer> v = new Vector<Integer>();
+    for (int i = 0; i < 6; i++)
+      v.add(i);
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+    assertEquals(15, jo.enumerateSubsets(v, 2).size());
+    assertEquals(1, jo.enumerateSubsets(v, 6).size());
+    assertEquals(1, jo.enumerateSubsets(v, 0).size());
+    for (Set<Integer> s : jo.enumerateSubsets(v, 4))
+      assertEquals(4, s.size());
+  }
+
+  /**
+   * A chain of joins through a small table starts at the small table
+   */
+  @Test public void smallTableFirst() throws Exception {
+    reset();
+    addTable("a", 5000, 5000);
+    addTable("b", 20, 5000);
+    addTable("c", 5000, 5000);
+    Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+    joins.add(join("a", "c"));
+    joins.add(join("c", "b"));
+
+    Vector<LogicalJoinNode> order = new JoinOptimizer(plan, joins).orderJoins(stats, selectivities, false);
+    assertEquals(2, order.size());
+    checkExecutable(order, 3);
+    LogicalJoinNode first = order.get(0);
+    assertTrue(first.t1Alias.equals("b") || first.t2Alias.equals("b"));
+  }
+
+  /**
+   * A join between tables that other joins already connect comes last
+   */
+  @Test public void cycle() throws Exception {
+    reset();
+    addTable("a", 100, 100);
+    addTable("b", 100, 100);
+    addTable("c", 100, 100);
+    Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+    joins.add(join("a", "b"));
+    joins.add(join("b", "c"));
+    joins.add(join("c", "a"));
+
+    Vector<LogicalJoinNode> order = new JoinOptimizer(plan, joins).orderJoins(stats, selectivities, false);
+    assertEquals(3, order.size());
+    Vector<LogicalJoinNode> tree = new Vector<LogicalJoinNode>(order.subList(0, 2));
+    checkExecutable(tree, 3);
+  }
+
+  /**
+   * Many-way joins are planned quickly: a chain of 15 tables and a clique
+   * of 12
+   */
+  @Test(timeout = 20000) public void bigJoins() throws Exception {
+    reset();
+    int n = 15;
+    for (int i = 0; i < n; i++)
+      addTable("t" + i, 100 + 50 * i, 1000);
+    Vector<LogicalJoinNode> chain = new Vector<LogicalJoinNode>();
+    for (int i = 1; i < n; i++)
+      chain.add(join("t" + (i - 1), "t" + i));
+    Vector<LogicalJoinNode> order = new JoinOptimizer(plan, chain).orderJoins(stats, selectivities, false);
+    assertEquals(n - 1, order.size());
+    checkExecutable(order, n);
+
+    int m = 12;
+    Vector<LogicalJoinNode> clique = new Vector<LogicalJoinNode>();
+    for (int i = 0; i < m; i++)
+      for (int k = i + 1; k < m; k++)
+        clique.add(join("t" + i, "t" + k));
+    order = new JoinOptimizer(plan, clique).orderJoins(stats, selectivities, false);
+    assertEquals(clique.size(), order.size());
+    checkExecutable(new Vector<LogicalJoinNode>(order.subList(0, m - 1)), m);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(JoinOptimizerTest.class);
+  }
+}
@@ -3,12 +3,16 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class JoinTest extends SimpleDbTestBase {
 
@@ -105,6 +109,76 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() when the outer child spans several blocks
+   */
+  @Test public void blocks() throws Exception {
+    int[] outer = new int[1200 * 2];
+    for (int i = 0; i < 1200; i++) {
+      outer[2 * i] = i;
+      outer[2 * i + 1] = -i;
+    }
+    int[] inner = new int[40 * 3];
+    for (int i = 0; i < 40; i++) {
+      inner[3 * i] = i;
+    }
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    // a page holds a few hundred two-int tuples, so this takes three blocks
+    Join op = new Join(pred, TestUtil.createTupleList(2, outer),
+        TestUtil.createTupleList(3, inner), 1);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(((IntField) t.getField(0)).getValue()
+          < ((IntField) t.getField(2)).getValue());
+      count++;
+    }
+    // each inner value v matches the outer values 0 .. v-1
+    assertEquals(39 * 40 / 2, count);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for Join.getNext() when the inner child is itself a Join over
+   * table scans, which is rewound once per block of the outer child
+   */
+  @Test public void nestedInner() throws Exception {
+    int[] outer = new int[1200 * 2];
+    for (int i = 0; i < 1200; i++)
+      outer[2 * i] = i % 20;
+    ArrayList<ArrayList<Integer>> rows1 = new ArrayList<ArrayList<Integer>>();
+    ArrayList<ArrayList<Integer>> rows2 = new ArrayList<ArrayList<Integer>>();
+    HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 30, 20, null, rows1);
+    HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 30, 20, null, rows2);
+    TransactionId tid = new TransactionId();
+    Join inner = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+    Join op = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(2, outer), inner, 1);
+
+    int expected = 0;
+    for (int i = 0; i < 1200; i++)
+      for (ArrayList<Integer> r1 : rows1)
+        for (ArrayList<Integer> r2 : rows2)
+          if (r1.get(0) == i % 20 && r2.get(0).equals(r1.get(0)))
+            expected++;
+
+    for (int pass = 0; pass < 2; pass++) {
+      if (pass == 0)
+        op.open();
+      else
+        op.rewind();
+      int count = 0;
+      while (op.hasNext()) {
+        op.next();
+        count++;
+      }
+      assertEquals(expected, count);
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /**
+   * Tuples (key, i) for i = 0 .. rows-1, with random keys below maxKey
+   */
+  private static DbIterator randomTuples(int rows, int maxKey) {
+    Random rand = new Random(42);
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = rand.nextInt(maxKey);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Check that op returns rows tuples ordered on their key, and tuples with
+   * equal keys in their original order
+   */
+  private static void checkSorted(DbIterator op, int rows, boolean asc) throws Exception {
+    int count = 0;
+    int lastKey = 0, lastSeq = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      int seq = ((IntField) t.getField(1)).getValue();
+      if (count > 0) {
+        if (key == lastKey)
+          assertTrue(seq > lastSeq);
+        else
+          assertEquals(asc, key > lastKey);
+      }
+      lastKey = key;
+      lastSeq = seq;
+      count++;
+    }
+    assertEquals(rows, count);
+  }
+
+  /**
+   * OrderBy of a child that fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, randomTuples(500, 50));
+    op.open();
+    assertFalse(op.isSpilled());
+    checkSorted(op, 500, true);
+    op.rewind();
+    checkSorted(op, 500, true);
+    op.close();
+  }
+
+  /**
+   * OrderBy of a child much larger than its budget, which takes several
+   * runs and merge passes
+   */
+  @Test public void external() throws Exception {
+    OrderBy op = new OrderBy(0, true, randomTuples(10000, 1000), 2);
+    op.open();
+    assertTrue(op.isSpilled());
+    checkSorted(op, 10000, true);
+    op.rewind();
+    checkSorted(op, 10000, true);
+    op.close();
+  }
+
+  /**
+   * External descending sort
+   */
+  @Test public void externalDescending() throws Exception {
+    OrderBy op = new OrderBy(0, false, randomTuples(5000, 100), 2);
+    op.open();
+    assertTrue(op.isSpilled());
+    checkSorted(op, 5000, false);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+  DbIterator leJoin;
+
+  /**
+   * Initialize each unit test; both children are sorted on their first
+   * column, and have duplicate join values
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    3, 5,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    3, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 5, 6,
+                    3, 5, 3, 4, 5,
+                    3, 5, 3, 5, 6 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 3, 4, 1, 2, 3,
+                    3, 4, 2, 3, 4,
+                    3, 5, 1, 2, 3,
+                    3, 5, 2, 3, 4,
+                    7, 8, 1, 2, 3,
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 3, 5, 6,
+                    7, 8, 5, 6, 7 });
+    this.leJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    1, 2, 2, 3, 4,
+                    1, 2, 3, 4, 5,
+                    1, 2, 3, 5, 6,
+                    1, 2, 5, 6, 7,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 5, 6,
+                    3, 4, 5, 6, 7,
+                    3, 5, 3, 4, 5,
+                    3, 5, 3, 5, 6,
+                    3, 5, 5, 6, 7 });
+  }
+
+  private static int count(DbIterator it) throws Exception {
+    int n = 0;
+    while (it.hasNext()) {
+      assertNotNull(it.next());
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate over runs of
+   * duplicates on both sides
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    assertEquals(5, count(op));
+    op.rewind();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    assertEquals(9, count(op));
+    op.rewind();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &lt;= predicate
+   */
+  @Test public void leJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    assertEquals(11, count(op));
+    op.rewind();
+    leJoin.open();
+    TestUtil.matchAllTuples(leJoin, op);
+  }
+
+  /**
+   * The output of an = join is in order of the join field
+   */
+  @Test public void sortedOutput() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.compareDbIterators(eqJoin, op);
+  }
+
+  /**
+   * Only predicates that order their operands are accepted
+   */
+  @Test(expected=IllegalArgumentException.class) public void rejectNotEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
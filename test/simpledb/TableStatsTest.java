@@ -0,0 +1,297 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+  /**
+   * Equi-depth buckets of uniform values
+   */
+  @Test public void intHistogramUniform() {
+    int[] values = new int[1000];
+    for (int i = 0; i < values.length; i++)
+      values[i] = i + 1;
+    IntHistogram h = new IntHistogram(100, values, values.length);
+
+    assertEquals(0.001, h.estimateSelectivity(Predicate.Op.EQUALS, 500), 1e-6);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 5000), 1e-6);
+    assertEquals(0.25, h.estimateSelectivity(Predicate.Op.LESS_THAN, 251), 0.01);
+    assertEquals(0.75, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 251), 0.01);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 1000), 1e-6);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 1000), 1e-6);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, -5), 1e-6);
+    assertEquals(0.999, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 3), 1e-6);
+  }
+
+  /**
+   * A value making up half of the column is estimated as such, and does not
+   * inflate the estimate for its neighbours
+   */
+  @Test public void intHistogramSkewed() {
+    int[] values = new int[2000];
+    for (int i = 0; i < values.length; i++)
+      values[i] = i % 2 == 0 ? 42 : i;
+    IntHistogram h = new IntHistogram(100, values, values.length);
+
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.EQUALS, 42), 0.02);
+    assertEquals(0.0005, h.estimateSelectivity(Predicate.Op.EQUALS, 1001), 0.0005);
+    assertEquals(0.25, h.avgSelectivity(Predicate.Op.EQUALS), 0.01);
+  }
+
+  /**
+   * Strings are ordered by their prefixes
+   */
+  @Test public void stringHistogram() {
+    String[] strs = { "apple", "banana", "cherry", "date", "elder", "fig", "grape", "honey" };
+    int[] values = new int[strs.length * 10];
+    for (int i = 0; i < values.length; i++)
+      values[i] = StringHistogram.stringToInt(strs[i % strs.length]);
+    StringHistogram h = new StringHistogram(100, values, values.length);
+
+    assertTrue(StringHistogram.stringToInt("a") < StringHistogram.stringToInt("b"));
+    assertTrue(StringHistogram.stringToInt("ab") < StringHistogram.stringToInt("abc"));
+    assertEquals(0.125, h.estimateSelectivity(Predicate.Op.EQUALS, "cherry"), 1e-6);
+    assertEquals(0.25, h.estimateSelectivity(Predicate.Op.LESS_THAN, "c"), 1e-6);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, "kiwi"), 1e-6);
+  }
+
+  /**
+   * HyperLogLog estimates within a few percent
+   */
+  @Test public void hyperLogLog() {
+    HyperLogLog small = new HyperLogLog();
+    HyperLogLog big = new HyperLogLog();
+    for (int i = 0; i < 200000; i++) {
+      small.add(HyperLogLog.hash(i % 100));
+      big.add(HyperLogLog.hash(i));
+    }
+    assertEquals(100, small.estimate(), 3);
+    assertEquals(200000, big.estimate(), 200000 * 0.05);
+
+    HyperLogLog other = new HyperLogLog();
+    for (int i = 100000; i < 300000; i++)
+      other.add(HyperLogLog.hash(i));
+    big.merge(other);
+    assertEquals(300000, big.estimate(), 300000 * 0.05);
+  }
+
+  /**
+   * Statistics from a full scan are exact in size and record their counts
+   * in the Catalog
+   */
+  @Test public void fullScan() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20000, 500, null, tuples);
+    TableStats s = new TableStats(f.getId(), 7, 0);
+
+    assertEquals(20000, s.totalTuples());
+    assertEquals(f.numPages() * 7.0, s.estimateScanCost(), 1e-6);
+    assertEquals(10000, s.estimateTableCardinality(0.5));
+    assertEquals(500, s.numDistinct(0), 25);
+
+    int below = 0;
+    for (ArrayList<Integer> t : tuples)
+      if (t.get(0) < 100) below++;
+    assertEquals((double) below / 20000,
+        s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(100)), 0.03);
+
+    TableStatistics saved = Database.getCatalog().getTableStatistics(f.getId());
+    assertNotNull(saved);
+    assertEquals(20000, saved.getNumTuples());
+    assertEquals(s.numDistinct(1), saved.getDistinct(1));
+  }
+
+  /**
+   * Statistics from a sample of pages scale up to the whole table
+   */
+  @Test public void sampled() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 50000, 1000, null, null);
+    TableStats s = new TableStats(f.getId(), 1, 20);
+
+    assertEquals(50000, s.totalTuples(), 50000 * 0.1);
+    assertEquals(f.numPages(), s.estimateScanCost(), 1e-6);
+    assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(500)), 0.05);
+    assertEquals(1000, s.numDistinct(1), 50);
+  }
+
+  /**
+   * The distinct count of a column that is neither a key nor has few values
+   * scales up from a sample of pages
+   */
+  @Test public void sampledDistinct() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 50000, 50000, null, tuples);
+    TableStats s = new TableStats(f.getId(), 1, 20);
+
+    HashSet<Integer> values = new HashSet<Integer>();
+    for (ArrayList<Integer> t : tuples)
+      values.add(t.get(0));
+    assertEquals(values.size(), s.numDistinct(0), values.size() * 0.25);
+  }
+
+  /**
+   * Statistics recorded in the Catalog are used instead of reading the
+   * table, as long as the table has as many pages as they say
+   */
+  @Test public void recorded() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null);
+    int pages = f.numPages();
+    Database.getCatalog().setTableStatistics(f.getId(), new TableStatistics(pages, 12345,
+        new int[] { 0, 0 }, new int[] { 999, 99 }, new long[] { 1000, 100 }));
+
+    TableStats s = new TableStats(f.getId(), 1, 0);
+    assertEquals(12345, s.totalTuples());
+    assertEquals(100, s.numDistinct(1));
+    assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(500)), 0.02);
+    assertEquals(0.01, s.avgSelectivity(1, Predicate.Op.EQUALS), 0.002);
+
+    // the table has grown since, so it is read again
+    Database.getCatalog().setTableStatistics(f.getId(), new TableStatistics(pages - 1, 12345,
+        new int[] { 0, 0 }, new int[] { 999, 99 }, new long[] { 1000, 100 }));
+    s = new TableStats(f.getId(), 1, 0);
+    assertEquals(2000, s.totalTuples());
+    assertEquals(2000, Database.getCatalog().getTableStatistics(f.getId()).getNumTuples());
+  }
+
+  /**
+   * computeStatistics scans every table, each in several page ranges whose
+   * partial statistics are merged
+   */
+  @Test public void computeStatistics() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile big = SystemTestUtil.createRandomHeapFile(2, 60000, 100000, null, tuples);
+    HeapFile small = SystemTestUtil.createRandomHeapFile(3, 10, null, null);
+    assertTrue(big.numPages() > 2 * TableStats.PAGES_PER_TASK);
+
+    TableStats.computeStatistics();
+    TableStats s = TableStats.getTableStats(Database.getCatalog().getTableName(big.getId()));
+    assertEquals(60000, s.totalTuples());
+    assertEquals(10, TableStats.getTableStats(
+        Database.getCatalog().getTableName(small.getId())).totalTuples());
+    assertEquals(0.5, s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(50000)), 0.03);
+
+    int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+    for (ArrayList<Integer> t : tuples) {
+      min = Math.min(min, t.get(0));
+      max = Math.max(max, t.get(0));
+    }
+    TableStatistics saved = Database.getCatalog().getTableStatistics(big.getId());
+    assertEquals(min, saved.getMin(0));
+    assertEquals(max, saved.getMax(0));
+  }
+
+  /**
+   * Page ranges holding fewer tuples per page weigh no more in the merged
+   * sample than the tuples they hold
+   */
+  @Test public void unevenPages() throws Exception {
+    File file = File.createTempFile("table", ".dat");
+    file.deleteOnExit();
+    HeapFile f = Utility.openHeapFile(2, file);
+    TupleDesc td = f.getTupleDesc();
+
+    // full pages of 1s, then as many pages of only 50 2s each
+    int full = 0;
+    for (int p = 0; p < 2 * TableStats.PAGES_PER_TASK; p++) {
+      HeapPage page = new HeapPage(new HeapPageId(f.getId(), p), HeapPage.createEmptyPageData());
+      boolean thin = p >= TableStats.PAGES_PER_TASK;
+      int n = thin ? 50 : page.getNumEmptySlots();
+      for (int i = 0; i < n; i++) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(thin ? 2 : 1));
+        t.setField(1, new IntField(i));
+        page.insertTuple(t);
+      }
+      if (!thin)
+        full += n;
+      f.writePage(page);
+    }
+    int thin = 50 * TableStats.PAGES_PER_TASK;
+    assertTrue(full > TableStats.SAMPLE_SIZE);
+
+    TableStats s = new TableStats(f.getId(), 1, 0);
+    assertEquals(full + thin, s.totalTuples());
+    assertEquals((double) thin / (full + thin),
+        s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(1)), 0.02);
+  }
+
+  /**
+   * Inserts and deletes through the BufferPool update the statistics of
+   * their table
+   */
+  @Test public void incremental() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, null);
+    String name = Database.getCatalog().getTableName(f.getId());
+    TableStats s = new TableStats(f.getId(), 1, 0);
+    TableStats.setTableStats(name, s);
+
+    long distinct = s.numDistinct(1);
+    // stay below the modifications that would start a rebuild
+    int n = 400;
+    assertTrue(2 * n < TableStats.MIN_REFRESH_MODIFICATIONS);
+
+    TransactionId tid = new TransactionId();
+    ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+    for (int i = 0; i < n; i++) {
+      Tuple t = new Tuple(f.getTupleDesc());
+      t.setField(0, new IntField(5000));
+      t.setField(1, new IntField(10000 + i));
+      Database.getBufferPool().insertTuple(tid, f.getId(), t);
+      inserted.add(t);
+    }
+    assertTrue(TableStats.getTableStats(name) == s);
+    assertEquals(2000 + n, s.totalTuples());
+    assertEquals((double) n / (2000 + n),
+        s.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000)), 0.02);
+    assertEquals(distinct + n, s.numDistinct(1), 50);
+
+    for (Tuple t : inserted)
+      Database.getBufferPool().deleteTuple(tid, t);
+    assertEquals(2000, s.totalTuples());
+    assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000)), 0.01);
+  }
+
+  /**
+   * Enough modifications rebuild the statistics in the background
+   */
+  @Test public void refresh() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, 1000, null, null);
+    String name = Database.getCatalog().getTableName(f.getId());
+    TableStats s = new TableStats(f.getId(), 1, 0);
+    TableStats.setTableStats(name, s);
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < TableStats.MIN_REFRESH_MODIFICATIONS; i++) {
+      Tuple t = new Tuple(f.getTupleDesc());
+      t.setField(0, new IntField(i));
+      t.setField(1, new IntField(i));
+      Database.getBufferPool().insertTuple(tid, f.getId(), t);
+    }
+    for (int i = 0; i < 100 && TableStats.getTableStats(name) == s; i++)
+      Thread.sleep(50);
+    TableStats fresh = TableStats.getTableStats(name);
+    assertTrue(fresh != s);
+    // the rebuild sees the inserted tuples in their dirty pages
+    assertEquals(2000, fresh.totalTuples());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TableStatsTest.class);
+  }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  DbIterator scan1;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 3, 0,
+                    7, 1,
+                    1, 2,
+                    7, 3,
+                    5, 4,
+                    3, 5,
+                    9, 6 });
+  }
+
+  /**
+   * Unit test for TopN.getNext() with a descending order
+   */
+  @Test public void descending() throws Exception {
+    TopN op = new TopN(0, false, 3, scan1);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 9, 6,
+                    7, 1,
+                    7, 3 }), op);
+  }
+
+  /**
+   * Of tuples with equal values the first ones read are kept
+   */
+  @Test public void ascendingTies() throws Exception {
+    TopN op = new TopN(0, true, 2, scan1);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 0 }), op);
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 0 }), op);
+  }
+
+  /**
+   * A limit larger than the child returns the whole child in order, and a
+   * limit of 0 returns nothing
+   */
+  @Test public void limits() throws Exception {
+    TopN op = new TopN(0, true, 100, scan1);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(7, count);
+    op.close();
+
+    op = new TopN(0, true, 0, scan1);
+    op.open();
+    assertFalse(op.hasNext());
+  }
+
+  /**
+   * Unit test for Limit.getNext()
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(2, scan1);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width1,
+        new int[] { 3, 0,
+                    7, 1 }), op);
+  }
+
+  /**
+   * LIMIT clauses are taken off the end of statements before Zql sees them
+   */
+  @Test public void limitClause() throws Exception {
+    assertEquals(50, Parser.parseLimit("SELECT * FROM t ORDER BY t.x DESC LIMIT 50;"));
+    assertEquals("SELECT * FROM t ORDER BY t.x DESC;",
+        Parser.stripLimit("SELECT * FROM t ORDER BY t.x DESC limit 50 ;"));
+    assertEquals(-1, Parser.parseLimit("SELECT * FROM t;"));
+    assertEquals("SELECT * FROM t;", Parser.stripLimit("SELECT * FROM t;"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -1,6 +1,15 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +38,61 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for string fields, unset fields, and Tuple(Tuple, Tuple)
+     */
+    @Test public void mixedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+
+        tup.setField(0, new StringField("hello", Type.STRING_LEN));
+        tup.setField(1, new IntField(42));
+        tup.setField(2, new StringField("", Type.STRING_LEN));
+        assertEquals(new StringField("hello", Type.STRING_LEN), tup.getField(0));
+        assertEquals(new StringField("", Type.STRING_LEN), tup.getField(2));
+
+        tup.setField(0, new StringField("hi", Type.STRING_LEN));
+        assertEquals(new StringField("hi", Type.STRING_LEN), tup.getField(0));
+
+        Tuple joined = new Tuple(Utility.getHeapTuple(7, 1), tup);
+        assertEquals(4, joined.getTupleDesc().numFields());
+        assertEquals(new IntField(7), joined.getField(0));
+        assertEquals(new StringField("hi", Type.STRING_LEN), joined.getField(1));
+        assertEquals(new IntField(42), joined.getField(2));
+        assertEquals(new StringField("", Type.STRING_LEN), joined.getField(3));
+    }
+
+    /**
+     * Strings are stored as ISO-8859-1: characters up to 0xFF survive a
+     * tuple and a serialize/parse round trip, and larger ones are rejected
+     */
+    @Test public void latin1Strings() throws Exception {
+        String s = "caf\u00e9 \u00ff\u0080";
+        StringField f = new StringField(s, Type.STRING_LEN);
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        Tuple tup = new Tuple(td);
+        tup.setField(0, f);
+        assertEquals(f, tup.getField(0));
+
+        ByteBuffer buf = ByteBuffer.allocate(Type.STRING_TYPE.getLen());
+        f.serialize(buf);
+        buf.flip();
+        assertEquals(f, Type.STRING_TYPE.parse(buf));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        f.serialize(new DataOutputStream(bytes));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(f, Type.STRING_TYPE.parse(in));
+
+        try {
+            new StringField("\u20ac", Type.STRING_LEN);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */